@@ -1,12 +1,17 @@
 package com.github.alanger.commonjs;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 
 public abstract class AbstractFolder implements Folder {
+    private static final int BUFFER_SIZE = 8192;
+
     private Folder parent;
     private String path;
 
@@ -23,13 +28,38 @@ public abstract class AbstractFolder implements Folder {
         this.path = path;
     }
 
+    static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
+
     public static String inputStreamToString(InputStream input, String encoding) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        try (InputStreamReader reader = new InputStreamReader(input, Charset.forName(encoding));
-                BufferedReader br = new BufferedReader(reader)) {
-            for (int c = br.read(); c != -1; c = br.read())
-                sb.append((char) c);
+        try (InputStreamReader reader = new InputStreamReader(input, Charset.forName(encoding))) {
+            StringBuilder sb = new StringBuilder(Math.max(input.available(), BUFFER_SIZE));
+            char[] buffer = new char[BUFFER_SIZE];
+            for (int n = reader.read(buffer); n != -1; n = reader.read(buffer))
+                sb.append(buffer, 0, n);
+            return sb.toString();
+        }
+    }
+
+    public static String fileToString(File file, String encoding) throws IOException {
+        Charset charset = Charset.forName(encoding);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + file);
+            }
+
+            // The file may be truncated while we read it, so we only decode what we got
+            byte[] bytes = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1)
+                ;
+            return new String(bytes, 0, buffer.position(), charset);
         }
-        return sb.toString();
     }
 }
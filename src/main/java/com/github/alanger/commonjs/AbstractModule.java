@@ -2,12 +2,22 @@ package com.github.alanger.commonjs;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+import javax.script.Compilable;
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
@@ -19,14 +29,26 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
 
     protected Folder folder;
     protected ModuleCache cache;
+    protected String filename;
 
     protected AbstractModule mainModule;
     public Object main;
     protected Object exports;
     protected Object module;
     protected List<Object> children = new ArrayList<>();
-
-    protected static ThreadLocal<Map<String, Object>> refCache = new ThreadLocal<>();
+    protected int sourceLength;
+    private volatile boolean loaded;
+    // Creates module objects, evaluated once by the main module
+    private volatile Object moduleFactory;
+    // Context module functions are evaluated in, and the compiled scripts of the
+    // engine, both kept by the main module
+    private volatile ScriptContext scriptContext;
+    private volatile CompiledScriptCache scripts;
+
+    // Requests already resolved by this module and the cache entries of the
+    // modules they resolved to, looked up before anything else
+    private static final int MAX_RESOLVED = 256;
+    private final Map<String, ModuleCache.Node> resolved;
 
     public AbstractModule(ScriptEngine engine, Folder folder, ModuleCache cache, String filename, Object module,
             Object exports, AbstractModule parent, AbstractModule root) throws ScriptException {
@@ -41,12 +63,19 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
 
         this.folder = folder;
         this.cache = cache;
+        this.filename = filename;
+        this.resolved = cache.isConcurrent() ? new ConcurrentHashMap<>() : new HashMap<>();
         this.mainModule = root != null ? root : this;
         this.module = module;
         this.exports = exports;
         this.main = this.mainModule.module;
 
         this.init(cache, filename, module, exports, parent, root);
+
+        // A circular require of the module returns it until it is loaded
+        if (filename != null) {
+            cache.setLoading(filename, this);
+        }
     }
 
     protected void init(ModuleCache cache, String filename, Object module, Object exports, AbstractModule parent,
@@ -68,8 +97,19 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
         return this.module;
     }
 
+    public String getFilename() {
+        return this.filename;
+    }
+
+    // Length of the source the module was compiled from, used as its weight in
+    // bounded caches
+    public int getSourceLength() {
+        return this.sourceLength;
+    }
+
     protected void setLoaded() throws ScriptException {
         putObject(this.module, "loaded", true);
+        this.loaded = true;
     }
 
     protected abstract AbstractModule compileJsonModule(Folder parent, String fullPath, String code)
@@ -80,12 +120,42 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
 
     protected abstract Object getNativeModule() throws ScriptException;
 
+    // Compiles the sources of JavaScript modules, by full path, ahead of their
+    // require, so that compileJavaScriptModule finds them compiled. Engines that
+    // can compile on several threads at once do it in parallel on the executor,
+    // and wait for it, the others do nothing. Errors are left to the require of
+    // the module.
+    protected void precompileJavaScriptModules(Map<String, String> sources, Executor executor) {
+    }
+
+    // Runs the task once for each of the first count workers, on the executor, and
+    // waits for them
+    protected static void runInParallel(int count, Executor executor, IntConsumer task) {
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            int worker = i;
+            workers[i] = CompletableFuture.runAsync(() -> task.accept(worker), executor);
+        }
+        CompletableFuture.allOf(workers).join();
+    }
+
     @Override
     public Object require(String module) throws ScriptException {
         if (module == null) {
             throwModuleNotFoundException("<null>");
         }
 
+        AbstractModule cached = getResolved(module);
+        if (cached != null) {
+            this.cache.dropPrefetched(folder.getPath(), module);
+            return cached.exports;
+        }
+
+        ModuleSource prefetched = this.cache.takePrefetched(folder.getPath(), module);
+        if (prefetched != null) {
+            return requireSource(module, prefetched);
+        }
+
         String[] parts = Paths.splitPath(module);
         if (parts.length == 0) {
             throwModuleNotFoundException(module);
@@ -99,52 +169,229 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
 
         Folder resolvedFolder = resolveFolder(folder, folderParts);
 
-        // Let's make sure each thread gets its own refCache
-        if (refCache.get() == null) {
-            refCache.set(new HashMap<>());
-        }
-
-        String requestedFullPath = null;
-        if (resolvedFolder != null) {
-            requestedFullPath = resolvedFolder.getPath() + filename;
-            Object cachedExports = refCache.get().get(requestedFullPath);
-            if (cachedExports != null) {
-                return cachedExports;
-            } else {
-                // We must store a reference to currently loading module to avoid circular
-                // requires
-                refCache.get().put(requestedFullPath, createSafeBindings());
+        // If not cached, we try to resolve the module from the current folder, ignoring
+        // node_modules
+        if (isPrefixedModuleName(module)) {
+            found = attemptToLoadFromThisFolder(resolvedFolder, filename);
+        }
+
+        // Then, if not successful, we'll look at node_modules in the current folder and
+        // then in all parent folders until we reach the top.
+        if (found == null) {
+            found = searchForModuleInNodeModules(folder, folderParts, filename);
+        }
+
+        if (found == null) {
+            if (!ModuleCache.isValidating(folder)) {
+                this.cache.putResolution(folder.getPath(), module, ModuleCache.NOT_FOUND);
             }
+            throwModuleNotFoundException(module);
         }
 
-        try {
-            // If not cached, we try to resolve the module from the current folder, ignoring
-            // node_modules
-            if (isPrefixedModuleName(module)) {
-                found = attemptToLoadFromThisFolder(resolvedFolder, filename);
+        assert found != null;
+        addFound(module, found);
+
+        return exportsOf(found);
+    }
+
+    // Resolves the module and reads its source on the loader executor, then
+    // compiles it and completes with its exports on the owner executor, the only
+    // one that uses the engine. A request already resolved completes on the owner
+    // executor right away. The modules it requires in turn are loaded on the
+    // owner executor, like with require. The loader only reads the folders, which
+    // must support being read by several threads. Unless the cache is concurrent,
+    // the owner executor must run one task at a time.
+    public CompletableFuture<Object> requireAsync(String module, Executor loaderExecutor, Executor ownerExecutor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return module != null ? getResolved(module) : null;
+            } catch (ScriptException e) {
+                throw new CompletionException(e);
             }
+        }, ownerExecutor).thenCompose(resolved -> {
+            if (resolved != null) {
+                return CompletableFuture.completedFuture(resolved.exports);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return findRequestedSource(folder, module);
+                } catch (ScriptException e) {
+                    throw new CompletionException(e);
+                }
+            }, loaderExecutor).thenApplyAsync(source -> {
+                try {
+                    return source != null ? requireSource(module, source) : require(module);
+                } catch (ScriptException e) {
+                    throw new CompletionException(e);
+                }
+            }, ownerExecutor);
+        });
+    }
 
-            // Then, if not successful, we'll look at node_modules in the current folder and
-            // then in all parent folders until we reach the top.
-            if (found == null) {
-                found = searchForModuleInNodeModules(folder, folderParts, filename);
+    // Reads the modules and the ones they require with a string literal, and
+    // compiles them ahead of time, in parallel with the engines that can. No
+    // module body runs: each one runs when the module is first required, which
+    // finds the source read here. Returns when every module is compiled.
+    public void preload(Collection<String> modules) throws ScriptException {
+        preload(modules, Precompiler.EXECUTOR);
+    }
+
+    // Compiles on the executor, whose threads wait for nothing else
+    public void preload(Collection<String> modules, Executor executor) throws ScriptException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String module : modules) {
+            if (module == null) {
+                throwModuleNotFoundException("<null>");
+            }
+            if (!readAhead(folder, module, sources)) {
+                throwModuleNotFoundException(module);
             }
+        }
+        if (!sources.isEmpty()) {
+            precompileJavaScriptModules(sources, executor);
+        }
+    }
+
+    // Reads a request and its literal requires in turn, keeping the sources for
+    // the requires. Returns false when the request is not found. Requests already
+    // resolved are skipped, and the literal requires that cannot be read are left
+    // to their require. Unlike the sources read on the prefetch pool, they are
+    // not limited in number.
+    private boolean readAhead(Folder from, String module, Map<String, String> sources) throws ScriptException {
+        String resolution = this.cache.getResolution(from.getPath(), module);
+        if (resolution != null) {
+            return resolution != ModuleCache.NOT_FOUND;
+        }
+        ModuleSource source = findRequestedSource(from, module);
+        if (source == null) {
+            return false;
+        }
+        this.cache.putPrefetched(from.getPath(), module, source);
+        if (source.fullPath.toLowerCase().endsWith(".js") && !sources.containsKey(source.fullPath)) {
+            sources.put(source.fullPath, source.code);
+            for (String request : RequireScanner.scan(source.code)) {
+                try {
+                    readAhead(source.parent, request, sources);
+                } catch (ScriptException e) {
+                    // Thrown again when the module is required
+                }
+            }
+        }
+        return true;
+    }
 
+    private Object requireSource(String module, ModuleSource source) throws ScriptException {
+        // Loaded by another require in the meantime
+        AbstractModule found = getResolved(module);
+        if (found == null) {
+            found = compileModuleAndPutInCache(source.parent, source.fullPath, source.code);
             if (found == null) {
-                throwModuleNotFoundException(module);
+                return require(module);
+            }
+            if (found.loaded) {
+                this.cache.put(source.requestedFullPath, found);
+            }
+            addFound(module, found);
+        }
+        return exportsOf(found);
+    }
+
+    // Returns the module a request was already resolved to, by this module or from
+    // its folder, or null
+    private AbstractModule getResolved(String module) throws ScriptException {
+        // A request already resolved by this module is answered without allocating,
+        // unless the module was evicted from the cache since. It is already one of
+        // the children.
+        ModuleCache.Node node = this.resolved.get(module);
+        if (node != null) {
+            AbstractModule cached = this.cache.get(node);
+            if (cached != null) {
+                return cached;
+            }
+            this.resolved.remove(module);
+        }
+
+        // A request already resolved from this folder skips the resolution too
+        String resolution = this.cache.getResolution(folder.getPath(), module);
+        if (resolution == ModuleCache.NOT_FOUND) {
+            throwModuleNotFoundException(module);
+        }
+        if (resolution != null) {
+            AbstractModule cached = this.cache.find(resolution);
+            if (cached != null) {
+                addChild(cached);
+                remember(module, resolution);
+                return cached;
             }
+        }
+        return null;
+    }
+
+    // A module still loading is returned to a circular require with the exports
+    // its module object holds at the time, like Node.js, in case the module
+    // replaced them before the cycle
+    private Object exportsOf(AbstractModule found) throws ScriptException {
+        return found.loaded ? found.exports : getObject(found.module, "exports");
+    }
 
-            assert found != null;
-            this.children.add(found.module);
+    private void addFound(String module, AbstractModule found) {
+        // A module still loading is only returned to a circular require
+        if (found.filename != null && found.loaded) {
+            this.cache.putResolution(folder.getPath(), module, found.filename);
+            remember(module, found.filename);
+        }
+        addChild(found);
+    }
 
-            return found.exports;
+    // The same lookup as require from a folder, without the caches, which belong
+    // to the thread of the module
+    private ModuleSource findRequestedSource(Folder from, String module) throws ScriptException {
+        if (module == null) {
+            return null;
+        }
+        String[] parts = Paths.splitPath(module);
+        if (parts.length == 0) {
+            return null;
+        }
+        String[] folderParts = Arrays.copyOfRange(parts, 0, parts.length - 1);
+        String filename = parts[parts.length - 1];
 
-        } finally {
-            // Finally, we remove the successful resolved module from the refCache
-            if (requestedFullPath != null) {
-                refCache.get().remove(requestedFullPath);
+        ModuleSource source = null;
+        if (isPrefixedModuleName(module)) {
+            source = findRequestedSourceIn(resolveFolder(from, folderParts), filename);
+        }
+        for (Folder current = from; source == null && current != null; current = current.getParent()) {
+            Folder nodeModules = current.getFolder("node_modules");
+            if (nodeModules != null) {
+                source = findRequestedSourceIn(resolveFolder(nodeModules, folderParts), filename);
             }
         }
+        return source;
+    }
+
+    private ModuleSource findRequestedSourceIn(Folder resolvedFolder, String filename) throws ScriptException {
+        if (resolvedFolder == null) {
+            return null;
+        }
+        ModuleSource source = findModuleSource(resolvedFolder, filename, false);
+        if (source != null) {
+            source.requestedFullPath = resolvedFolder.getPath() + filename;
+        }
+        return source;
+    }
+
+    private void remember(String request, String fullPath) {
+        ModuleCache.Node node = this.cache.getNode(fullPath);
+        if (node != null && this.resolved.size() < MAX_RESOLVED) {
+            this.resolved.put(request, node);
+        }
+    }
+
+    private void addChild(AbstractModule child) {
+        // Children may be added by several threads when the cache is shared
+        synchronized (this.children) {
+            this.children.add(child.module);
+        }
     }
 
     protected AbstractModule searchForModuleInNodeModules(Folder resolvedFolder, String[] folderParts, String filename)
@@ -175,20 +422,17 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
 
         String requestedFullPath = resolvedFolder.getPath() + filename;
 
-        AbstractModule found = this.cache.get(requestedFullPath);
+        AbstractModule found = this.cache.find(requestedFullPath);
         if (found != null) {
             return found;
         }
 
-        // First we try to load as a file, trying out various variations on the path
-        found = loadModuleAsFile(resolvedFolder, filename);
-
-        // Then we try to load as a directory
-        if (found == null) {
-            found = loadModuleAsFolder(resolvedFolder, filename);
+        ModuleSource source = findModuleSource(resolvedFolder, filename, true);
+        if (source != null) {
+            found = compileModuleAndPutInCache(source.parent, source.fullPath, source.code);
         }
 
-        if (found != null) {
+        if (found != null && found.loaded) {
             // We keep a cache entry for the requested path even though the code that
             // compiles the module also adds it to the cache with the potentially different
             // effective path. This avoids having to load package.json every time, etc.
@@ -198,47 +442,68 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
         return found;
     }
 
-    private AbstractModule loadModuleAsFile(Folder parent, String filename) throws ScriptException {
+    // Finds the source of a module in a folder without loading it. Package.json
+    // files are parsed through the module cache, unless the lookup runs on
+    // another thread than the one of the module.
+    private ModuleSource findModuleSource(Folder resolvedFolder, String filename, boolean cached)
+            throws ScriptException {
+        // First we try to load as a file, trying out various variations on the path
+        ModuleSource source = findModuleAsFile(resolvedFolder, filename);
+
+        // Then we try to load as a directory
+        if (source == null) {
+            source = findModuleAsFolder(resolvedFolder, filename, cached);
+        }
+
+        return source;
+    }
+
+    private ModuleSource findModuleAsFile(Folder parent, String filename) {
 
         String[] filenamesToAttempt = getFilenamesToAttempt(filename);
         for (String tentativeFilename : filenamesToAttempt) {
 
             String code = parent.getFile(tentativeFilename);
             if (code != null) {
-                String fullPath = parent.getPath() + tentativeFilename;
-                return compileModuleAndPutInCache(parent, fullPath, code);
+                return ModuleSource.of(parent, parent.getPath() + tentativeFilename, code);
             }
         }
 
         return null;
     }
 
-    private AbstractModule loadModuleAsFolder(Folder parent, String name) throws ScriptException {
+    private ModuleSource findModuleAsFolder(Folder parent, String name, boolean cached) throws ScriptException {
         Folder fileAsFolder = parent.getFolder(name);
         if (fileAsFolder == null) {
             return null;
         }
 
-        AbstractModule found = loadModuleThroughPackageJson(fileAsFolder);
+        ModuleSource found = findModuleThroughPackageJson(fileAsFolder, cached);
 
         if (found == null) {
-            found = loadModuleThroughIndexJs(fileAsFolder);
+            found = findModuleThroughIndex(fileAsFolder, "index.js");
         }
 
         if (found == null) {
-            found = loadModuleThroughIndexJson(fileAsFolder);
+            found = findModuleThroughIndex(fileAsFolder, "index.json");
         }
 
         return found;
     }
 
-    private AbstractModule loadModuleThroughPackageJson(Folder parent) throws ScriptException {
-        String packageJson = parent.getFile("package.json");
+    private ModuleSource findModuleThroughPackageJson(Folder parent, boolean cached) throws ScriptException {
+        PackageJson packageJson;
+        if (cached) {
+            packageJson = this.cache.getPackageJson(parent);
+        } else {
+            String json = parent.getFile("package.json");
+            packageJson = json != null ? PackageJson.parse(json) : null;
+        }
         if (packageJson == null) {
             return null;
         }
 
-        String mainFile = getMainFileFromPackageJson(packageJson);
+        String mainFile = packageJson.getMain();
         if (mainFile == null) {
             return null;
         }
@@ -251,61 +516,79 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
             return null;
         }
 
-        AbstractModule module = loadModuleAsFile(folder, filename);
+        ModuleSource source = findModuleAsFile(folder, filename);
 
-        if (module == null) {
+        if (source == null) {
             folder = resolveFolder(parent, parts);
             if (folder != null) {
-                module = loadModuleThroughIndexJs(folder);
+                source = findModuleThroughIndex(folder, "index.js");
             }
         }
 
-        return module;
+        return source;
     }
 
-    private AbstractModule loadModuleThroughIndexJs(Folder parent) throws ScriptException {
-        String code = parent.getFile("index.js");
+    private ModuleSource findModuleThroughIndex(Folder parent, String filename) {
+        String code = parent.getFile(filename);
         if (code == null) {
             return null;
         }
 
-        return compileModuleAndPutInCache(parent, parent.getPath() + "index.js", code);
-    }
-
-    private AbstractModule loadModuleThroughIndexJson(Folder parent) throws ScriptException {
-        String code = parent.getFile("index.json");
-        if (code == null) {
-            return null;
-        }
-
-        return compileModuleAndPutInCache(parent, parent.getPath() + "index.json", code);
+        return ModuleSource.of(parent, parent.getPath() + filename, code);
     }
 
     private AbstractModule compileModuleAndPutInCache(Folder parent, String fullPath, String code)
             throws ScriptException {
 
-        AbstractModule created;
         String lowercaseFullPath = fullPath.toLowerCase();
         if (lowercaseFullPath.endsWith(".js")) {
-            created = compileJavaScriptModule(parent, fullPath, code);
+            // We keep a cache entry for the compiled module using it's effective path,
+            // to avoid recompiling even if module is requested through a different
+            // initial path.
+            return this.cache.load(fullPath, () -> {
+                prefetch(parent, code, true);
+                return withSourceLength(compileJavaScriptModule(parent, fullPath, code), code);
+            });
         } else if (lowercaseFullPath.endsWith(".json")) {
-            created = compileJsonModule(parent, fullPath, code);
+            return this.cache.load(fullPath, () -> withSourceLength(compileJsonModule(parent, fullPath, code), code));
         } else {
             // Unsupported module type
             return null;
         }
+    }
 
-        // We keep a cache entry for the compiled module using it's effective path, to
-        // avoid
-        // recompiling even if module is requested through a different initial path.
-        this.cache.put(fullPath, created);
-
-        return created;
+    // Reads the modules the code requires with a string literal on the prefetch
+    // pool of the cache, and the ones they require in turn. Requests already
+    // resolved are skipped, on the pool only when the cache is concurrent: the
+    // resolutions of other caches belong to the thread of the module.
+    private void prefetch(Folder from, String code, boolean owner) {
+        if (this.cache.getPrefetchPool() == null) {
+            return;
+        }
+        boolean resolutions = owner || this.cache.isConcurrent();
+        for (String request : RequireScanner.scan(code)) {
+            if (resolutions && this.cache.getResolution(from.getPath(), request) != null) {
+                continue;
+            }
+            this.cache.prefetch(from.getPath(), request, () -> {
+                try {
+                    ModuleSource source = findRequestedSource(from, request);
+                    if (source != null && source.fullPath.toLowerCase().endsWith(".js")) {
+                        prefetch(source.parent, source.code, false);
+                    }
+                    return source;
+                } catch (ScriptException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
     }
 
-    protected String getMainFileFromPackageJson(String packageJson) throws ScriptException {
-        Object jsonObject = parseJson(packageJson);
-        return (String) getObject(jsonObject, "main");
+    private static AbstractModule withSourceLength(AbstractModule module, String code) {
+        if (module != null) {
+            module.sourceLength = code.length();
+        }
+        return module;
     }
 
     protected Object parseJson(String json) throws ScriptException {
@@ -359,6 +642,50 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
         return this.engine.eval("({})");
     }
 
+    // Source of the function wrapping the code of a module, like node does. The \n
+    // at the end is to take care of files ending with a comment.
+    protected static String wrapModuleSource(String code) {
+        return "(function (exports, require, module, __filename, __dirname) {" + code + "\n})";
+    }
+
+    // Evaluates the function wrapping the code of a module in the context of the
+    // main module. The source of Compilable engines is compiled once, by any
+    // module of the engine, and the function is only created again from it.
+    protected Object evalModuleFunction(String fullPath, String code) throws ScriptException {
+        String source = wrapModuleSource(code);
+        AbstractModule main = this.mainModule;
+        ScriptContext context = main.scriptContext != null ? main.scriptContext : this.engine.getContext();
+        if (this.engine instanceof Compilable) {
+            CompiledScriptCache found = main.scripts;
+            if (found == null) {
+                found = CompiledScriptCache.of(this.engine);
+                main.scripts = found;
+            }
+            return found.get((Compilable) this.engine, fullPath, source).eval(context);
+        }
+        return this.engine.eval(source, context);
+    }
+
+    // Called by Require on the main module enabled in bindings of their own
+    void setScriptContext(ScriptContext scriptContext) {
+        this.scriptContext = scriptContext;
+    }
+
+    // New module object inheriting from the global object, so that the engine
+    // scope variables are visible through it without being copied
+    protected Object createModuleObject() throws ScriptException {
+        AbstractModule main = this.mainModule;
+        if (main.moduleFactory == null) {
+            main.moduleFactory = this.engine.eval("(function(global) { return { create: function() {"
+                    + " return Object.create(global); } }; })(this)");
+        }
+        try {
+            return ((Invocable) this.engine).invokeMethod(main.moduleFactory, "create");
+        } catch (NoSuchMethodException e) {
+            throw new ScriptException(e);
+        }
+    }
+
     protected static boolean isPrefixedModuleName(String module) {
         return module.startsWith("/") || module.startsWith("../") || module.startsWith("./");
     }
@@ -378,4 +705,38 @@ abstract public class AbstractModule extends SimpleBindings implements RequireFu
         Map<String, Object> m = (Map<String, Object>) thizz;
         return m.put(key, value);
     }
+
+    // Source of a module found in a folder, not loaded yet
+    static final class ModuleSource {
+        private final Folder parent;
+        private final String fullPath;
+        private final String code;
+        // Path the module was requested with, set by asynchronous requires
+        private String requestedFullPath;
+
+        private ModuleSource(Folder parent, String fullPath, String code) {
+            this.parent = parent;
+            this.fullPath = fullPath;
+            this.code = code;
+        }
+
+        // Null for unsupported module types
+        private static ModuleSource of(Folder parent, String fullPath, String code) {
+            String lowercaseFullPath = fullPath.toLowerCase();
+            if (lowercaseFullPath.endsWith(".js") || lowercaseFullPath.endsWith(".json")) {
+                return new ModuleSource(parent, fullPath, code);
+            }
+            return null;
+        }
+    }
+
+    // Threads modules are compiled on by preload, created when first used
+    private static final class Precompiler {
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), task -> {
+                    Thread thread = new Thread(task, "commonjs-precompiler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
 }
@@ -0,0 +1,122 @@
+package com.github.alanger.commonjs;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Folder decorator that keeps the sources returned by another folder, and the
+// names it does not have, in a SourceCache. It is thread-safe as long as the
+// decorated folder is, so one instance can be passed to Require.enable by many
+// engines.
+public class CachingFolder extends AbstractFolder {
+    private static final AtomicLong NAMESPACES = new AtomicLong();
+    private static final Object MISSING = new Object();
+
+    private Folder delegate;
+    private SourceCache cache;
+    private boolean validate;
+    // Prefix of the keys of the sources of this folder. Filesystem folders are
+    // keyed by their canonical directory, so folders over the same files share
+    // entries. Entries of other folders are only shared by the folders created
+    // from the same root.
+    private String prefix;
+
+    private final ConcurrentMap<String, Object> folders = new ConcurrentHashMap<>();
+
+    private CachingFolder(Folder delegate, Folder parent, SourceCache cache, boolean validate, String prefix) {
+        super(parent, delegate.getPath());
+        this.delegate = delegate;
+        this.cache = cache;
+        this.validate = validate && isFilesystem(delegate);
+        this.prefix = prefix;
+    }
+
+    public Folder getDelegate() {
+        return delegate;
+    }
+
+    public SourceCache getCache() {
+        return cache;
+    }
+
+    public boolean isValidating() {
+        return validate;
+    }
+
+    @Override
+    public String getFile(String name) {
+        String key = prefix + name;
+        SourceCache.Entry entry = cache.get(key);
+        if (entry != null && (!validate || isValid(name, entry))) {
+            return entry.getContent();
+        }
+
+        // Stamps are taken before reading, so a change made meanwhile is seen by
+        // the next validation
+        long lastModified = 0;
+        long length = 0;
+        if (validate) {
+            File file = new File(getPath(), name);
+            lastModified = file.lastModified();
+            length = file.length();
+            if (lastModified == 0) {
+                // A new file changes the modification time of its directory
+                lastModified = new File(getPath()).lastModified();
+            }
+        }
+
+        String content = delegate.getFile(name);
+        cache.put(key, new SourceCache.Entry(content, lastModified, length));
+        return content;
+    }
+
+    @Override
+    public Folder getFolder(String name) {
+        Object folder = folders.get(name);
+        if (folder == null) {
+            Folder found = delegate.getFolder(name);
+            folder = found != null ? new CachingFolder(found, this, cache, validate, prefix + name + "/") : MISSING;
+            // Misses are not kept when the filesystem is validated, the folder may
+            // be created later
+            if (found != null || !validate) {
+                Object previous = folders.putIfAbsent(name, folder);
+                folder = previous != null ? previous : folder;
+            }
+        }
+        return folder != MISSING ? (Folder) folder : null;
+    }
+
+    private boolean isValid(String name, SourceCache.Entry entry) {
+        if (entry.getContent() == null) {
+            return new File(getPath()).lastModified() == entry.getLastModified();
+        }
+        File file = new File(getPath(), name);
+        return file.lastModified() == entry.getLastModified() && file.length() == entry.getLength();
+    }
+
+    private static boolean isFilesystem(Folder folder) {
+        return folder instanceof FilesystemFolder || folder instanceof IndexedFilesystemFolder;
+    }
+
+    public static CachingFolder create(Folder folder, long maxWeight) {
+        return create(folder, new SourceCache(maxWeight), false);
+    }
+
+    // With validate, sources of filesystem folders are read again when the
+    // modification time or the size of the file changes. It is ignored for
+    // other folders.
+    public static CachingFolder create(Folder folder, SourceCache cache, boolean validate) {
+        return new CachingFolder(folder, null, cache, validate, prefixOf(folder));
+    }
+
+    private static String prefixOf(Folder folder) {
+        if (folder instanceof FilesystemFolder) {
+            return ((FilesystemFolder) folder).getSourceNamespace();
+        }
+        if (folder instanceof IndexedFilesystemFolder) {
+            return ((IndexedFilesystemFolder) folder).getSourceNamespace();
+        }
+        return NAMESPACES.incrementAndGet() + ":" + folder.getPath();
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.alanger.commonjs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// Compiled code of modules kept in a local directory across JVM restarts. An
+// entry is found by the kind of code and the full path of its module, and holds
+// the SHA-256 of the source it was compiled from: once the source changes the
+// entry is no longer returned and the next put replaces it. Entries are written
+// to a temporary file first and moved in place, so that readers never see a
+// partial entry. The cache is an optimization, failures to read or write it are
+// ignored.
+public class CodeCache {
+
+    // Directory of the code cache of new module caches, none by default.
+    // Example: -Djsr223.code.cache=/var/cache/commonjs
+    public static final String DIRECTORY = "jsr223.code.cache";
+
+    private static final byte[] MAGIC = { 'J', 'C', 'C', 1 };
+    private static final int HASH_LENGTH = 32;
+
+    private final Path directory;
+
+    public CodeCache(Path directory) {
+        this.directory = directory.toAbsolutePath();
+    }
+
+    // The code cache of the jsr223.code.cache system property, or null
+    public static CodeCache getDefault() {
+        String directory = System.getProperty(DIRECTORY);
+        return directory != null && !directory.isEmpty() ? new CodeCache(java.nio.file.Paths.get(directory)) : null;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Returns the code compiled from the source, or null when there is none or
+    // when it was compiled from another source
+    public byte[] get(String kind, String fullPath, String source) {
+        Path file = directory.resolve(getKey(kind, fullPath));
+        byte[] entry;
+        try {
+            entry = Files.readAllBytes(file);
+        } catch (IOException e) {
+            return null;
+        }
+        int header = MAGIC.length + HASH_LENGTH;
+        if (entry.length < header || !Arrays.equals(Arrays.copyOf(entry, MAGIC.length), MAGIC)) {
+            return null;
+        }
+        byte[] hash = Arrays.copyOfRange(entry, MAGIC.length, header);
+        if (!Arrays.equals(hash, sha256(source))) {
+            return null;
+        }
+        return Arrays.copyOfRange(entry, header, entry.length);
+    }
+
+    public void put(String kind, String fullPath, String source, byte[] code) {
+        ByteBuffer entry = ByteBuffer.allocate(MAGIC.length + HASH_LENGTH + code.length);
+        entry.put(MAGIC).put(sha256(source)).put(code);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(temp, entry.array());
+            Path file = directory.resolve(getKey(kind, fullPath));
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            // Read only or full directories only make the cache useless
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Nothing else to do
+                }
+            }
+        }
+    }
+
+    private static String getKey(String kind, String fullPath) {
+        byte[] hash = sha256(kind + '\0' + fullPath);
+        StringBuilder key = new StringBuilder(hash.length * 2 + 4);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.append(".bin").toString();
+    }
+
+    static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.alanger.commonjs;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+// Wrapped module sources compiled once per Compilable engine, whatever the
+// bindings or the ModuleCache the modules are loaded with, by path and SHA-256
+// of the source. A compiled script references its engine, so the cache of an
+// engine is kept by its main modules and only weakly referenced here: it goes
+// away with them, and nothing here keeps the engine alive.
+final class CompiledScriptCache {
+    private static final int MAX_SCRIPTS = 4096;
+
+    private static final Map<ScriptEngine, WeakReference<CompiledScriptCache>> CACHES = new WeakHashMap<>();
+
+    private final Map<String, Entry> scripts = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SCRIPTS;
+        }
+    };
+
+    private CompiledScriptCache() {
+    }
+
+    static CompiledScriptCache of(ScriptEngine engine) {
+        synchronized (CACHES) {
+            WeakReference<CompiledScriptCache> reference = CACHES.get(engine);
+            CompiledScriptCache cache = reference != null ? reference.get() : null;
+            if (cache == null) {
+                cache = new CompiledScriptCache();
+                CACHES.put(engine, new WeakReference<>(cache));
+            }
+            return cache;
+        }
+    }
+
+    // Returns the script compiled for the path, compiling it when there is none
+    // or when the source changed
+    CompiledScript get(Compilable engine, String fullPath, String source) throws ScriptException {
+        byte[] hash = CodeCache.sha256(source);
+        Entry entry;
+        synchronized (scripts) {
+            entry = scripts.get(fullPath);
+        }
+        if (entry != null && Arrays.equals(entry.hash, hash)) {
+            return entry.script;
+        }
+
+        // Compiled outside of the lock, two threads may compile the same source
+        entry = new Entry(hash, engine.compile(source));
+        synchronized (scripts) {
+            scripts.put(fullPath, entry);
+        }
+        return entry.script;
+    }
+
+    private static final class Entry {
+        private final byte[] hash;
+        private final CompiledScript script;
+
+        private Entry(byte[] hash, CompiledScript script) {
+            this.hash = hash;
+            this.script = script;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.github.alanger.commonjs;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 public class FilesystemFolder extends AbstractFolder {
@@ -20,12 +18,9 @@ public class FilesystemFolder extends AbstractFolder {
         File file = new File(root, name);
 
         try {
-            try (FileInputStream stream = new FileInputStream(file)) {
-                return inputStreamToString(stream, encoding);
-            }
-        } catch (FileNotFoundException ex) {
-            return null;
+            return fileToString(file, encoding);
         } catch (IOException ex) {
+            // Missing files and directories both end up here
             return null;
         }
     }
@@ -40,6 +35,12 @@ public class FilesystemFolder extends AbstractFolder {
         return new FilesystemFolder(folder, this, getPath() + name + File.separator, encoding);
     }
 
+    // Folders of the same kind over the same directory and encoding return the
+    // same sources, so they share the entries of a SourceCache
+    String getSourceNamespace() {
+        return "file:" + encoding + ":" + canonicalPath(root).replace(File.separatorChar, '/') + "/";
+    }
+
     public static FilesystemFolder create(File root, String encoding) {
         File absolute = root.getAbsoluteFile();
         return new FilesystemFolder(absolute, null, absolute.getPath() + File.separator, encoding);
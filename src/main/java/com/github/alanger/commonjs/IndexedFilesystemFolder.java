@@ -0,0 +1,154 @@
+package com.github.alanger.commonjs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Filesystem folder that lists each directory once and answers getFile/getFolder
+// misses from memory. Unlike FilesystemFolder, names are always matched
+// case-sensitively.
+public class IndexedFilesystemFolder extends AbstractFolder {
+    private File root;
+    private String encoding = "UTF-8";
+    private boolean checkModified;
+
+    private volatile Index index;
+    private final ConcurrentMap<String, IndexedFilesystemFolder> folders = new ConcurrentHashMap<>();
+
+    private static final class Index {
+        private final long lastModified;
+        private final Set<String> files;
+        private final Set<String> folders;
+
+        private Index(long lastModified, Set<String> files, Set<String> folders) {
+            this.lastModified = lastModified;
+            this.files = files;
+            this.folders = folders;
+        }
+    }
+
+    private IndexedFilesystemFolder(File root, Folder parent, String path, String encoding, boolean checkModified) {
+        super(parent, path);
+        this.root = root;
+        this.encoding = encoding;
+        this.checkModified = checkModified;
+    }
+
+    @Override
+    public String getFile(String name) {
+        if (!isPlainName(name)) {
+            return readFile(new File(root, name));
+        }
+
+        if (!getIndex().files.contains(name)) {
+            return null;
+        }
+
+        return readFile(new File(root, name));
+    }
+
+    @Override
+    public Folder getFolder(String name) {
+        if (!isPlainName(name)) {
+            Folder current = this;
+            for (String part : Paths.splitPath(name)) {
+                current = current.getFolder(part);
+                if (current == null) {
+                    return null;
+                }
+            }
+            return current;
+        }
+
+        if (!getIndex().folders.contains(name)) {
+            return null;
+        }
+
+        return folders.computeIfAbsent(name, n -> new IndexedFilesystemFolder(new File(root, n), this,
+                getPath() + n + File.separator, encoding, checkModified));
+    }
+
+    public boolean isCheckModified() {
+        return checkModified;
+    }
+
+    // Drops the listing of this folder, it will be read again on next access. The
+    // resolutions a ModuleCache remembers are dropped by its clearResolutions.
+    public void invalidate() {
+        index = null;
+    }
+
+    private String readFile(File file) {
+        try {
+            return fileToString(file, encoding);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private Index getIndex() {
+        Index current = index;
+        if (current == null || (checkModified && current.lastModified != root.lastModified())) {
+            current = listDirectory();
+            index = current;
+            folders.keySet().retainAll(current.folders);
+        }
+        return current;
+    }
+
+    private Index listDirectory() {
+        // Taken before listing, so a change made while we list is seen next time
+        long lastModified = root.lastModified();
+        Set<String> files = new HashSet<>();
+        Set<String> dirs = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.toPath())) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException ex) {
+                    // Broken symbolic link or removed while listing
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    dirs.add(name);
+                } else if (attrs.isRegularFile()) {
+                    files.add(name);
+                }
+            }
+        } catch (IOException ex) {
+            // Not a directory anymore, or not readable: behave as an empty one
+        }
+        return new Index(lastModified, Set.copyOf(files), Set.copyOf(dirs));
+    }
+
+    private static boolean isPlainName(String name) {
+        return name.indexOf('/') == -1 && name.indexOf('\\') == -1;
+    }
+
+    // Folders of the same kind over the same directory and encoding return the
+    // same sources, so they share the entries of a SourceCache
+    String getSourceNamespace() {
+        return "indexed:" + encoding + ":" + canonicalPath(root).replace(File.separatorChar, '/') + "/";
+    }
+
+    public static IndexedFilesystemFolder create(File root, String encoding) {
+        return create(root, encoding, false);
+    }
+
+    // With checkModified each access compares the directory mtime with the one
+    // recorded when it was listed, and lists it again when they differ
+    public static IndexedFilesystemFolder create(File root, String encoding, boolean checkModified) {
+        File absolute = root.getAbsoluteFile();
+        return new IndexedFilesystemFolder(absolute, null, absolute.getPath() + File.separator, encoding,
+                checkModified);
+    }
+}
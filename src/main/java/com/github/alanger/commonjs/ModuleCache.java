@@ -1,17 +1,732 @@
 package com.github.alanger.commonjs;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.script.ScriptException;
 
 public class ModuleCache {
-    private Map<String, AbstractModule> modules = new HashMap<>();
+    // Resolutions of requests that did not find a module
+    static final String NOT_FOUND = "\0";
+    private static final int MAX_RESOLUTIONS = 16 * 1024;
+    // Requests read ahead until the cache is cleared
+    static final int MAX_PREFETCHED = 4096;
+
+    public enum EvictionPolicy {
+        // Evicts the least recently used module
+        LRU,
+        // Window TinyLFU: new modules enter a small LRU window, then stay in the
+        // cache only if they are used more often than the module they replace
+        TINY_LFU
+    }
+
+    private final boolean concurrent;
+    private final long maxEntries;
+    private final long maxWeight;
+    private final EvictionPolicy policy;
+
+    // A module is cached under its effective path and often under the requested
+    // path too, all the keys of a module share the same node
+    private final Map<String, Node> nodes;
+    private final Map<AbstractModule, Node> byModule = new IdentityHashMap<>();
+    private final Object lock = new Object();
+    private final FrequencySketch sketch;
+    // Nodes in access order, the least recently used first. TinyLFU admits new
+    // modules to the window and LRU puts them straight in the main region.
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue main = new AccessQueue();
+    private long size;
+    private long weight;
+    private long windowSize;
+    private long windowWeight;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    // Loads in progress, which also break circular requires, and the load each
+    // thread is waiting for in concurrent caches. Entries only live while their
+    // module loads.
+    private final Map<String, Loading> loading;
+    private final ConcurrentMap<Thread, Loading> waiting;
+
+    // Full path of the module a request resolves to from a given folder, or
+    // NOT_FOUND, so that node_modules folders are not walked again
+    private final Map<String, String> resolutions;
+    // package.json of each folder path, PackageJson.MISSING when there is none
+    private final Map<String, PackageJson> packages;
+    // Compiled code kept across JVM restarts
+    private volatile CodeCache codeCache;
+    // Sources of requests read ahead of their require, by folder and request,
+    // removed by the require of the request
+    private final Map<String, CompletableFuture<AbstractModule.ModuleSource>> prefetched = new ConcurrentHashMap<>();
+    // Requests read ahead since the cache was cleared. Each one is read ahead
+    // once, which ends the walk of a cyclic graph, and at most MAX_PREFETCHED
+    // are, which bounds the reads of a large one and the sources of requires
+    // that never run.
+    private final Set<String> prefetchedRequests = ConcurrentHashMap.newKeySet();
+    private volatile ForkJoinPool prefetchPool;
+
+    @FunctionalInterface
+    public interface Loader {
+        AbstractModule load() throws ScriptException;
+    }
+
+    public ModuleCache() {
+        this(false);
+    }
+
+    // A concurrent cache can be shared by threads that require modules through
+    // the same engine, each one with its own bindings. Concurrent loads of the
+    // same module wait for the first one instead of compiling it again.
+    public ModuleCache(boolean concurrent) {
+        this(concurrent, 0, 0, EvictionPolicy.LRU);
+    }
+
+    // Bounds the number of modules and their total weight, which is the length
+    // of their sources. Zero means no bound. Evicted modules keep working where
+    // they are already used, but the next require runs the module again: it gets
+    // new exports, and the modules that kept the old ones do not see its state.
+    public ModuleCache(boolean concurrent, long maxEntries, long maxWeight, EvictionPolicy policy) {
+        if (maxEntries < 0 || maxWeight < 0) {
+            throw new IllegalArgumentException("Bounds must not be negative");
+        }
+        this.concurrent = concurrent;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.policy = policy != null ? policy : EvictionPolicy.LRU;
+        this.nodes = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.sketch = isBounded() && this.policy == EvictionPolicy.TINY_LFU ? new FrequencySketch(maxEntries)
+                : null;
+        this.loading = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.waiting = concurrent ? new ConcurrentHashMap<>() : null;
+        this.resolutions = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.packages = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.codeCache = CodeCache.getDefault();
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    public boolean isBounded() {
+        return maxEntries > 0 || maxWeight > 0;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    public CodeCache getCodeCache() {
+        return codeCache;
+    }
+
+    // Modules compiled from now on are looked up in the code cache and stored
+    // there, null disables it
+    public void setCodeCache(CodeCache codeCache) {
+        this.codeCache = codeCache;
+    }
+
+    public ForkJoinPool getPrefetchPool() {
+        return prefetchPool;
+    }
+
+    // The modules required with a string literal by the modules loaded from now
+    // on, and the ones they require in turn, are read on the pool while the
+    // modules run. Null disables it.
+    public void setPrefetchPool(ForkJoinPool prefetchPool) {
+        this.prefetchPool = prefetchPool;
+    }
+
+    // Number of distinct modules in the cache
+    public long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public long getWeight() {
+        synchronized (lock) {
+            return weight;
+        }
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), evictionCount.sum());
+    }
 
     @SuppressWarnings("unchecked")
     protected <T extends AbstractModule> T get(String fullPath) {
-        return (T) modules.get(fullPath);
+        Node node = nodes.get(fullPath);
+        if (sketch != null) {
+            sketch.increment(fullPath);
+        }
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        touch(node);
+        return (T) node.module;
+    }
+
+    // Same as get, for a lookup followed by a load when it misses. Only hits are
+    // counted, the load counts the miss, so that a require counts once.
+    AbstractModule find(String fullPath) {
+        Node node = nodes.get(fullPath);
+        return node != null ? get(node) : null;
+    }
+
+    // Entry of a cached module, kept by modules to find it again without a lookup
+    Node getNode(String fullPath) {
+        return nodes.get(fullPath);
+    }
+
+    // Same as get, for an entry returned by getNode. Returns null once the module
+    // was evicted or the cache cleared.
+    AbstractModule get(Node node) {
+        if (node.removed) {
+            return null;
+        }
+        if (sketch != null) {
+            sketch.increment(node.key);
+        }
+        hitCount.increment();
+        touch(node);
+        return node.module;
+    }
+
+    // Moves the node to the end of its queue, which only matters to bounded caches
+    private void touch(Node node) {
+        if (isBounded()) {
+            synchronized (lock) {
+                if (!node.removed) {
+                    queueOf(node).moveToLast(node);
+                }
+            }
+        }
+    }
+
+    private AccessQueue queueOf(Node node) {
+        return node.window ? window : main;
+    }
+
+    // Same as get, without counting a hit or a miss
+    private AbstractModule peek(String fullPath) {
+        Node node = nodes.get(fullPath);
+        return node != null ? node.module : null;
     }
 
     public void put(String fullPath, AbstractModule module) {
-        modules.put(fullPath, module);
+        synchronized (lock) {
+            Node node = byModule.get(module);
+            if (node == null) {
+                node = new Node(module, module.getSourceLength(), fullPath);
+                node.window = policy == EvictionPolicy.TINY_LFU;
+                byModule.put(module, node);
+                size++;
+                weight += node.weight;
+                if (node.window) {
+                    windowSize++;
+                    windowWeight += node.weight;
+                }
+                queueOf(node).addLast(node);
+            } else {
+                queueOf(node).moveToLast(node);
+            }
+
+            Node previous = nodes.put(fullPath, node);
+            if (previous != node) {
+                node.keys.add(fullPath);
+                if (previous != null) {
+                    previous.keys.remove(fullPath);
+                    if (previous.keys.isEmpty()) {
+                        removeNode(previous);
+                    }
+                }
+            }
+
+            if (isBounded()) {
+                evict();
+            }
+        }
+    }
+
+    // Returns the full path the request resolves to from the folder, NOT_FOUND, or
+    // null when the request was not resolved yet. The module itself may have been
+    // evicted since.
+    protected String getResolution(String folderPath, String request) {
+        return resolutions.get(folderPath + '\0' + request);
+    }
+
+    // Folders that see the files added or changed after they were first read. The
+    // requests they did not resolve and their package.json files are not
+    // remembered, the next require looks them up again.
+    static boolean isValidating(Folder folder) {
+        return folder instanceof IndexedFilesystemFolder && ((IndexedFilesystemFolder) folder).isCheckModified()
+                || folder instanceof CachingFolder && ((CachingFolder) folder).isValidating();
+    }
+
+    protected void putResolution(String folderPath, String request, String fullPath) {
+        // Resolutions are cheap to compute again, there is no point in an LRU
+        if (resolutions.size() >= MAX_RESOLUTIONS) {
+            resolutions.clear();
+        }
+        resolutions.put(folderPath + '\0' + request, fullPath);
+    }
+
+    // Reads the source of a request from a folder on the prefetch pool, unless it
+    // was already read ahead or too many were
+    void prefetch(String folderPath, String request, Supplier<AbstractModule.ModuleSource> reader) {
+        ForkJoinPool pool = prefetchPool;
+        String key = folderPath + '\0' + request;
+        if (pool == null || prefetchedRequests.size() >= MAX_PREFETCHED || !prefetchedRequests.add(key)) {
+            return;
+        }
+        prefetched.putIfAbsent(key, CompletableFuture.supplyAsync(reader, pool));
+    }
+
+    // Keeps a source read by a preload for the require that uses it
+    void putPrefetched(String folderPath, String request, AbstractModule.ModuleSource source) {
+        String key = folderPath + '\0' + request;
+        prefetchedRequests.add(key);
+        prefetched.putIfAbsent(key, CompletableFuture.completedFuture(source));
+    }
+
+    // Returns the source read ahead for a request, waiting for the read if needed,
+    // or null when there is none or the read failed
+    AbstractModule.ModuleSource takePrefetched(String folderPath, String request) {
+        if (prefetched.isEmpty()) {
+            return null;
+        }
+        CompletableFuture<AbstractModule.ModuleSource> source = prefetched.remove(folderPath + '\0' + request);
+        if (source == null) {
+            return null;
+        }
+        try {
+            return source.join();
+        } catch (CompletionException | CancellationException e) {
+            // The require reads it again and reports the error
+            return null;
+        }
+    }
+
+    // Number of sources read ahead and not taken yet
+    int countPrefetched() {
+        return prefetched.size();
+    }
+
+    // Drops the source read ahead for a request that turned out to be resolved
+    void dropPrefetched(String folderPath, String request) {
+        if (!prefetched.isEmpty()) {
+            prefetched.remove(folderPath + '\0' + request);
+        }
+    }
+
+    // Returns the package.json of the folder, or null when it has none. A malformed
+    // file is not cached, it fails again at the next attempt.
+    protected PackageJson getPackageJson(Folder folder) throws ScriptException {
+        String folderPath = folder.getPath();
+        PackageJson found = packages.get(folderPath);
+        if (found == null) {
+            String json = folder.getFile("package.json");
+            found = json != null ? PackageJson.parse(json) : PackageJson.MISSING;
+            if (isValidating(folder)) {
+                return found != PackageJson.MISSING ? found : null;
+            }
+            if (packages.size() >= MAX_RESOLUTIONS) {
+                packages.clear();
+            }
+            packages.put(folderPath, found);
+        }
+        return found != PackageJson.MISSING ? found : null;
+    }
+
+    // Forgets the resolutions and the package.json files, so that modules added
+    // to the folders are found. The loaded modules stay in the cache.
+    public void clearResolutions() {
+        resolutions.clear();
+        packages.clear();
+    }
+
+    // Removes all the modules and resolutions, modules already in use keep working
+    public void clear() {
+        resolutions.clear();
+        packages.clear();
+        prefetched.clear();
+        prefetchedRequests.clear();
+        synchronized (lock) {
+            for (Node node : byModule.values()) {
+                node.removed = true;
+            }
+            nodes.clear();
+            byModule.clear();
+            window.clear();
+            main.clear();
+            size = 0;
+            weight = 0;
+            windowSize = 0;
+            windowWeight = 0;
+        }
+    }
+
+    // Returns the cached module, or loads and caches it. In a concurrent cache
+    // only one thread loads a given path at a time, the others wait for it. A
+    // module required again while it loads, by one of its own requires or by a
+    // thread it waits for, is returned as it is, like Node.js returns the
+    // partial exports of a circular require.
+    protected AbstractModule load(String fullPath, Loader loader) throws ScriptException {
+        AbstractModule found = get(fullPath);
+        if (found != null) {
+            return found;
+        }
+
+        Thread current = Thread.currentThread();
+        Loading mine = new Loading(current);
+        for (;;) {
+            Loading other = loading.putIfAbsent(fullPath, mine);
+            if (other == null) {
+                break;
+            }
+            // Other caches do not register waiting threads, and their maps may
+            // already be broken by the other thread
+            if (!concurrent && other.owner != current) {
+                throw new IllegalStateException("Module " + fullPath
+                        + " is loaded by another thread, requires from several threads need a concurrent ModuleCache");
+            }
+
+            // A module requiring itself on this thread, or two threads requiring
+            // each other's module: waiting would never end
+            if (other.owner == current || !awaitWithoutDeadlock(other)) {
+                AbstractModule partial = other.partial;
+                return partial != null ? partial : loadAndPut(fullPath, loader);
+            }
+
+            found = other.module != null ? other.module : peek(fullPath);
+            if (found != null) {
+                return found;
+            }
+            // The other load failed, let's try on our own
+        }
+
+        try {
+            found = peek(fullPath);
+            if (found == null) {
+                found = loadAndPut(fullPath, loader);
+            }
+            mine.module = found;
+            return found;
+        } finally {
+            loading.remove(fullPath, mine);
+            mine.partial = null;
+            mine.done.countDown();
+        }
+    }
+
+    // Called by a module being constructed, before its code runs
+    void setLoading(String fullPath, AbstractModule module) {
+        Loading mine = loading.get(fullPath);
+        if (mine != null && mine.owner == Thread.currentThread() && mine.partial == null) {
+            mine.partial = module;
+        }
+    }
+
+    private AbstractModule loadAndPut(String fullPath, Loader loader) throws ScriptException {
+        long start = System.nanoTime();
+        AbstractModule found = null;
+        try {
+            found = loader.load();
+        } finally {
+            totalLoadTime.add(System.nanoTime() - start);
+            if (found != null) {
+                loadSuccessCount.increment();
+            } else {
+                loadFailureCount.increment();
+            }
+        }
+
+        if (found != null) {
+            put(fullPath, found);
+        }
+        return found;
+    }
+
+    // Returns false instead of waiting when the owner of the load is waiting,
+    // directly or not, for the current thread
+    private boolean awaitWithoutDeadlock(Loading other) throws ScriptException {
+        Thread current = Thread.currentThread();
+        // Registered before checking, so of two threads waiting for each other at
+        // least one sees the cycle
+        waiting.put(current, other);
+        try {
+            Thread owner = other.owner;
+            for (int i = 0; i <= waiting.size(); i++) {
+                Loading next = waiting.get(owner);
+                if (next == null) {
+                    break;
+                }
+                if (next.owner == current) {
+                    return false;
+                }
+                owner = next.owner;
+            }
+
+            other.done.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModuleException("Interrupted while waiting for module to load", "INTERRUPTED");
+        } finally {
+            waiting.remove(current);
+        }
+    }
+
+    // Called with the lock held, after a module was added
+    private void evict() {
+        if (policy == EvictionPolicy.LRU) {
+            while (isOverBounds()) {
+                evictNode(main.head);
+            }
+            return;
+        }
+
+        // Modules leaving the window move to the end of the main region, where each
+        // one competes with the least recently used module of the region: the one
+        // used less often is evicted
+        Node candidate = null;
+        while (isWindowOverBounds()) {
+            Node node = window.head;
+            window.remove(node);
+            node.window = false;
+            windowSize--;
+            windowWeight -= node.weight;
+            main.addLast(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (isOverBounds()) {
+            Node victim = main.head;
+            if (victim == null) {
+                evictNode(window.head);
+            } else if (candidate == null) {
+                evictNode(victim);
+            } else if (victim == candidate || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                Node next = candidate.next;
+                evictNode(candidate);
+                candidate = next;
+            } else {
+                evictNode(victim);
+            }
+        }
+    }
+
+    private boolean isOverBounds() {
+        return size > 0 && ((maxEntries > 0 && size > maxEntries) || (maxWeight > 0 && weight > maxWeight));
+    }
+
+    private boolean isWindowOverBounds() {
+        return windowSize > 0 && ((maxEntries > 0 && windowSize > Math.max(1, maxEntries / 100))
+                || (maxWeight > 0 && windowWeight > Math.max(1, maxWeight / 100)));
+    }
+
+    private void evictNode(Node node) {
+        removeNode(node);
+        evictionCount.increment();
+    }
+
+    private void removeNode(Node node) {
+        for (String key : node.keys) {
+            nodes.remove(key, node);
+        }
+        byModule.remove(node.module);
+        queueOf(node).remove(node);
+        node.removed = true;
+        size--;
+        weight -= node.weight;
+        if (node.window) {
+            windowSize--;
+            windowWeight -= node.weight;
+        }
+    }
+
+    static final class Node {
+        private final AbstractModule module;
+        private final long weight;
+        // First key of the module, used to count its accesses through the node
+        private final String key;
+        private final List<String> keys = new ArrayList<>(2);
+        private volatile boolean removed;
+        // Guarded by the lock of the cache
+        private boolean window;
+        private Node prev;
+        private Node next;
+
+        private Node(AbstractModule module, long weight, String key) {
+            this.module = module;
+            this.weight = weight;
+            this.key = key;
+        }
+    }
+
+    // Doubly linked list of nodes, guarded by the lock of the cache, so that the
+    // least recently used node is found and moved in constant time
+    private static final class AccessQueue {
+        private Node head;
+        private Node tail;
+
+        private void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail != null) {
+                tail.next = node;
+            } else {
+                head = node;
+            }
+            tail = node;
+        }
+
+        private void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        private void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private void clear() {
+            head = null;
+            tail = null;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters packed in longs, as used by TinyLFU. The
+    // counters are halved periodically so that old popularity fades away. Updates
+    // are racy, an approximate count is all we need.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(long maxEntries) {
+            int capacity = (int) Math.min(Math.max(maxEntries, 256), 1 << 24);
+            this.table = new long[Integer.highestOneBit(capacity - 1) << 1];
+            this.sampleSize = 10 * capacity;
+        }
+
+        private int frequency(Node node) {
+            int frequency = 0;
+            for (String key : node.keys) {
+                frequency = Math.max(frequency, frequency(key));
+            }
+            return frequency;
+        }
+
+        private int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        private void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & (table.length - 1);
+        }
+
+        // Each long holds 16 counters, every hash function uses its own quarter
+        private static int offsetOf(int hash, int i) {
+            return (((hash >>> (i << 3)) & 3) + (i << 2)) << 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    private static final class Loading {
+        private final Thread owner;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile AbstractModule module;
+        // The module while its code runs
+        private volatile AbstractModule partial;
+
+        private Loading(Thread owner) {
+            this.owner = owner;
+        }
     }
 }
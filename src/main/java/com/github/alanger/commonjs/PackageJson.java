@@ -0,0 +1,334 @@
+package com.github.alanger.commonjs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// The fields of a package.json the resolver needs. The file is read by a small
+// JSON scanner which checks the whole document but only keeps the string
+// fields of the top-level object, so resolving never goes through the engine.
+public class PackageJson {
+    static final PackageJson MISSING = new PackageJson(Collections.emptyMap());
+
+    private static final int MAX_DEPTH = 512;
+
+    private final Map<String, String> fields;
+
+    private PackageJson(Map<String, String> fields) {
+        this.fields = fields;
+    }
+
+    public String getMain() {
+        return fields.get("main");
+    }
+
+    // Value of a top-level string field, null when it is missing or not a string
+    public String getString(String name) {
+        return fields.get(name);
+    }
+
+    public static PackageJson parse(String json) throws ModuleException {
+        Reader reader = new Reader(json);
+        Map<String, String> fields = new HashMap<>();
+        // Byte order marks are ignored, as node does
+        if (reader.peekIs('\uFEFF')) {
+            reader.pos++;
+        }
+        reader.skipWhitespace();
+        if (reader.peek() == '{') {
+            reader.readObject(fields);
+        } else {
+            reader.skipValue(0);
+        }
+        reader.skipWhitespace();
+        if (reader.pos < json.length()) {
+            throw reader.error("unexpected character");
+        }
+        return new PackageJson(fields);
+    }
+
+    private static final class Reader {
+        private final String json;
+        private int pos;
+
+        private Reader(String json) {
+            this.json = json;
+        }
+
+        private void readObject(Map<String, String> fields) throws ModuleException {
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            for (;;) {
+                skipWhitespace();
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                if (peek() == '"') {
+                    fields.put(name, readString());
+                } else {
+                    // Same as JSON.parse, the last duplicate wins
+                    fields.remove(name);
+                    skipValue(1);
+                }
+                if (endOfMembers('}')) {
+                    return;
+                }
+            }
+        }
+
+        private void skipValue(int depth) throws ModuleException {
+            if (depth > MAX_DEPTH) {
+                throw error("too deeply nested");
+            }
+            skipWhitespace();
+            char c = peek();
+            switch (c) {
+                case '{':
+                    pos++;
+                    skipWhitespace();
+                    if (peek() == '}') {
+                        pos++;
+                        return;
+                    }
+                    do {
+                        skipWhitespace();
+                        skipString();
+                        skipWhitespace();
+                        expect(':');
+                        skipValue(depth + 1);
+                    } while (!endOfMembers('}'));
+                    return;
+                case '[':
+                    pos++;
+                    skipWhitespace();
+                    if (peek() == ']') {
+                        pos++;
+                        return;
+                    }
+                    do {
+                        skipValue(depth + 1);
+                    } while (!endOfMembers(']'));
+                    return;
+                case '"':
+                    skipString();
+                    return;
+                case 't':
+                    skipLiteral("true");
+                    return;
+                case 'f':
+                    skipLiteral("false");
+                    return;
+                case 'n':
+                    skipLiteral("null");
+                    return;
+                default:
+                    skipNumber();
+            }
+        }
+
+        // Consumes a ',' and returns false, or consumes the closing character and
+        // returns true
+        private boolean endOfMembers(char close) throws ModuleException {
+            skipWhitespace();
+            char c = peek();
+            if (c == ',') {
+                pos++;
+                return false;
+            }
+            if (c == close) {
+                pos++;
+                return true;
+            }
+            throw error("expected ',' or '" + close + "'");
+        }
+
+        private String readString() throws ModuleException {
+            expect('"');
+            int start = pos;
+            // Most strings have no escape, they are copied at once
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c == '"') {
+                    return json.substring(start, pos++);
+                }
+                if (c == '\\') {
+                    break;
+                }
+                if (c < 0x20) {
+                    throw error("control character in string");
+                }
+                pos++;
+            }
+
+            StringBuilder sb = new StringBuilder(json.substring(start, pos));
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c < 0x20) {
+                    pos--;
+                    throw error("control character in string");
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    break;
+                }
+                char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        sb.append((char) readHex());
+                        break;
+                    default:
+                        pos--;
+                        throw error("invalid escape");
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private void skipString() throws ModuleException {
+            expect('"');
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return;
+                }
+                if (c < 0x20) {
+                    pos--;
+                    throw error("control character in string");
+                }
+                if (c == '\\') {
+                    char escaped = pos < json.length() ? json.charAt(pos++) : 0;
+                    if (escaped == 'u') {
+                        readHex();
+                    } else if ("\"\\/bfnrt".indexOf(escaped) < 0) {
+                        pos--;
+                        throw error("invalid escape");
+                    }
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private int readHex() throws ModuleException {
+            if (pos + 4 > json.length()) {
+                throw error("invalid unicode escape");
+            }
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(json.charAt(pos++), 16);
+                if (digit < 0) {
+                    pos--;
+                    throw error("invalid unicode escape");
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        private void skipNumber() throws ModuleException {
+            int start = pos;
+            if (peekIs('-')) {
+                pos++;
+            }
+            if (peekIs('0')) {
+                pos++;
+            } else if (!skipDigits()) {
+                pos = start;
+                throw error("unexpected character");
+            }
+            if (peekIs('.')) {
+                pos++;
+                if (!skipDigits()) {
+                    throw error("invalid number");
+                }
+            }
+            if (peekIs('e') || peekIs('E')) {
+                pos++;
+                if (peekIs('+') || peekIs('-')) {
+                    pos++;
+                }
+                if (!skipDigits()) {
+                    throw error("invalid number");
+                }
+            }
+        }
+
+        private boolean skipDigits() {
+            int start = pos;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        private void skipLiteral(String literal) throws ModuleException {
+            if (!json.startsWith(literal, pos)) {
+                throw error("unexpected character");
+            }
+            pos += literal.length();
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private void expect(char expected) throws ModuleException {
+            if (peek() != expected) {
+                throw error("expected '" + expected + "'");
+            }
+            pos++;
+        }
+
+        private boolean peekIs(char c) {
+            return pos < json.length() && json.charAt(pos) == c;
+        }
+
+        private char peek() throws ModuleException {
+            if (pos >= json.length()) {
+                throw error("unexpected end of input");
+            }
+            return json.charAt(pos);
+        }
+
+        private ModuleException error(String message) {
+            return new ModuleException("Invalid package.json: " + message + " at position " + pos,
+                    "ERR_INVALID_PACKAGE_CONFIG");
+        }
+    }
+}
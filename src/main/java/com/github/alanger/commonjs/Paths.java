@@ -1,7 +1,33 @@
 package com.github.alanger.commonjs;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Paths {
+    private static final String[] EMPTY = new String[0];
+
+    // Same result as path.split("[\\\\/]"), without compiling a regular expression
     public static String[] splitPath(String path) {
-        return path.split("[\\\\/]");
+        if (path.isEmpty()) {
+            return new String[] { path };
+        }
+
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/' || c == '\\') {
+                parts.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(path.substring(start));
+
+        // Trailing empty parts are dropped, like String.split does
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return size == 0 ? EMPTY : parts.subList(0, size).toArray(new String[size]);
     }
 }
@@ -0,0 +1,73 @@
+package com.github.alanger.commonjs;
+
+// Snapshot of the statistics of a RequirePool
+public class PoolStats {
+    private final int size;
+    private final int borrowedCount;
+    private final long borrowCount;
+    private final long totalWaitTime;
+    private final long maxWaitTime;
+    private final long totalBorrowedTime;
+    private final long uptime;
+
+    public PoolStats(int size, int borrowedCount, long borrowCount, long totalWaitTime, long maxWaitTime,
+            long totalBorrowedTime, long uptime) {
+        this.size = size;
+        this.borrowedCount = borrowedCount;
+        this.borrowCount = borrowCount;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.totalBorrowedTime = totalBorrowedTime;
+        this.uptime = uptime;
+    }
+
+    // Number of engines of the pool
+    public int getSize() {
+        return size;
+    }
+
+    // Engines borrowed at the time of the snapshot
+    public int getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    // Nanoseconds spent waiting for an engine, including borrows that timed out
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public double getAverageWaitTime() {
+        return borrowCount == 0 ? 0.0 : (double) totalWaitTime / borrowCount;
+    }
+
+    // Nanoseconds engines spent borrowed, counting engines still borrowed up to
+    // the time of the snapshot
+    public long getTotalBorrowedTime() {
+        return totalBorrowedTime;
+    }
+
+    // Nanoseconds since the pool was created
+    public long getUptime() {
+        return uptime;
+    }
+
+    // Share of the engine time of the pool spent borrowed, between 0 and 1
+    public double getUtilisation() {
+        return size == 0 || uptime <= 0 ? 0.0 : Math.min(1.0, (double) totalBorrowedTime / ((double) size * uptime));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{size=" + size + ", borrowedCount=" + borrowedCount + ", borrowCount="
+                + borrowCount + ", totalWaitTime=" + totalWaitTime + ", maxWaitTime=" + maxWaitTime
+                + ", totalBorrowedTime=" + totalBorrowedTime + ", uptime=" + uptime + "}";
+    }
+}
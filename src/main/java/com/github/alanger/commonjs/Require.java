@@ -4,6 +4,7 @@ import javax.script.Bindings;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
 import com.github.alanger.commonjs.graalvm.GraalModule;
 import com.github.alanger.commonjs.nashorn.NashornModule;
@@ -31,6 +32,14 @@ public class Require {
     // (each thread should have his own global scope defined
     // through the binding that is passed as an argument).
     public static AbstractModule enable(ScriptEngine engine, Folder folder, Bindings bindings) throws ScriptException {
+        return enable(engine, folder, bindings, new ModuleCache());
+    }
+
+    // This overload uses the given cache for the modules. A cache created with
+    // new ModuleCache(true) can be shared by the bindings of several threads
+    // using the same script engine, each module is then loaded only once.
+    public static AbstractModule enable(ScriptEngine engine, Folder folder, Bindings bindings, ModuleCache cache)
+            throws ScriptException {
 
         AbstractModule created = null;
 
@@ -42,16 +51,28 @@ public class Require {
 
         // Module class may be changed: -Djsr223.module.name="rhino"
         if (prop == null && NASHORN_NAME.equals(name) || NASHORN.equals(prop)) {
-            created = new NashornModule(engine, folder, new ModuleCache(), "<main>", module, exports, null, null);
+            created = new NashornModule(engine, folder, cache, "<main>", module, exports, null, null);
         } else if (prop == null && RHINO_NAME.equals(name) || RHINO.equals(prop)) {
-            created = new RhinoModule(engine, folder, new ModuleCache(), "<main>", module, exports, null, null);
+            created = new RhinoModule(engine, folder, cache, "<main>", module, exports, null, null);
         } else if (prop == null && GRAALJS_NAME.equals(name) || GRAALJS.equals(prop)) {
-            created = new GraalModule(engine, folder, new ModuleCache(), "<main>", module, exports, null, null);
+            created = new GraalModule(engine, folder, cache, "<main>", module, exports, null, null);
         } else {
-            created = new Jsr223Module(engine, folder, new ModuleCache(), "<main>", module, exports, null, null);
+            created = new Jsr223Module(engine, folder, cache, "<main>", module, exports, null, null);
         }
         created.setLoaded();
 
+        // Module functions are evaluated in the global of the bindings
+        if (bindings != engine.getBindings(ScriptContext.ENGINE_SCOPE)) {
+            ScriptContext defaultContext = engine.getContext();
+            ScriptContext context = new SimpleScriptContext();
+            context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+            context.setBindings(defaultContext.getBindings(ScriptContext.GLOBAL_SCOPE), ScriptContext.GLOBAL_SCOPE);
+            context.setReader(defaultContext.getReader());
+            context.setWriter(defaultContext.getWriter());
+            context.setErrorWriter(defaultContext.getErrorWriter());
+            created.setScriptContext(context);
+        }
+
         bindings.put("require", created.getNativeModule());
         bindings.put("module", module);
         bindings.put("exports", exports);
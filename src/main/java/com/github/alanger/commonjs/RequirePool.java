@@ -0,0 +1,296 @@
+package com.github.alanger.commonjs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+// Script engines with require enabled on the same root folder and their entry
+// modules already loaded, each one used by one thread at a time. An engine has
+// its own ModuleCache, so its modules are loaded once for all its uses, and its
+// engine scope is restored after each use, so that a use does not see the
+// variables left by the previous one.
+public class RequirePool implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(PooledEngine engine) throws ScriptException;
+    }
+
+    private final PooledEngine[] engines;
+    private final BlockingQueue<PooledEngine> idle;
+    private final long createdAt = System.nanoTime();
+    private volatile boolean closed;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final LongAdder totalBorrowedTime = new LongAdder();
+
+    private RequirePool(List<PooledEngine> engines) {
+        this.engines = engines.toArray(new PooledEngine[0]);
+        this.idle = new ArrayBlockingQueue<>(this.engines.length);
+        for (PooledEngine engine : this.engines) {
+            engine.pool = this;
+            this.idle.add(engine);
+        }
+    }
+
+    // Creates the engines with the factory and loads the modules in each one,
+    // the engines in parallel. When one fails, the ones already created are
+    // closed.
+    public static RequirePool create(Supplier<ScriptEngine> factory, Folder folder, int size, String... modules)
+            throws ScriptException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(size,
+                Runtime.getRuntime().availableProcessors()));
+        List<Future<PooledEngine>> futures = new ArrayList<>(size);
+        boolean created = false;
+        try {
+            for (int i = 0; i < size; i++) {
+                futures.add(executor.submit(() -> new PooledEngine(factory.get(), folder, modules)));
+            }
+            List<PooledEngine> engines = new ArrayList<>(size);
+            for (Future<PooledEngine> future : futures) {
+                engines.add(future.get());
+            }
+            created = true;
+            return new RequirePool(engines);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModuleException("Interrupted while creating the engines", "INTERRUPTED");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ScriptException) {
+                throw (ScriptException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ScriptException((Exception) cause);
+        } finally {
+            // Engines that were not started yet never will be
+            for (Runnable task : executor.shutdownNow()) {
+                ((Future<?>) task).cancel(false);
+            }
+            if (!created) {
+                closeCreated(futures);
+            }
+        }
+    }
+
+    // Waits for the engines still being created, so that none is left open
+    private static void closeCreated(List<Future<PooledEngine>> futures) {
+        boolean interrupted = false;
+        for (Future<PooledEngine> future : futures) {
+            for (;;) {
+                try {
+                    future.get().close();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getSize() {
+        return engines.length;
+    }
+
+    // Waits for an engine as long as needed
+    public PooledEngine borrow() throws ScriptException {
+        return borrow(-1, TimeUnit.NANOSECONDS);
+    }
+
+    // Returns null when no engine was released before the timeout
+    public PooledEngine borrow(long timeout, TimeUnit unit) throws ScriptException {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+
+        long start = System.nanoTime();
+        PooledEngine engine;
+        try {
+            engine = timeout < 0 ? idle.take() : idle.poll(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModuleException("Interrupted while waiting for an engine", "INTERRUPTED");
+        }
+        long now = System.nanoTime();
+        long wait = now - start;
+        totalWaitTime.add(wait);
+        maxWaitTime.accumulateAndGet(wait, Math::max);
+        if (engine == null) {
+            return null;
+        }
+
+        borrowCount.increment();
+        // 0 means idle and System.nanoTime() may return it, so the lowest bit is set
+        engine.borrowedAt.set(now | 1);
+        return engine;
+    }
+
+    // Restores the engine scope of the engine and makes it available again. Of
+    // concurrent releases of the same borrow, only one returns the engine to the
+    // pool, the others fail.
+    public void release(PooledEngine engine) throws ScriptException {
+        long borrowedAt = engine.pool == this ? engine.borrowedAt.get() : 0;
+        if (borrowedAt == 0 || !engine.borrowedAt.compareAndSet(borrowedAt, 0)) {
+            throw new IllegalArgumentException("Engine is not borrowed from this pool");
+        }
+
+        totalBorrowedTime.add(System.nanoTime() - borrowedAt);
+        try {
+            engine.reset();
+        } finally {
+            if (closed) {
+                engine.close();
+            } else {
+                idle.add(engine);
+            }
+        }
+    }
+
+    public <T> T withEngine(Task<T> task) throws ScriptException {
+        PooledEngine engine = borrow();
+        try {
+            return task.run(engine);
+        } finally {
+            release(engine);
+        }
+    }
+
+    public PoolStats getStats() {
+        long now = System.nanoTime();
+        long borrowedTime = totalBorrowedTime.sum();
+        int borrowed = 0;
+        for (PooledEngine engine : engines) {
+            long borrowedAt = engine.borrowedAt.get();
+            if (borrowedAt != 0) {
+                borrowed++;
+                borrowedTime += now - borrowedAt;
+            }
+        }
+        return new PoolStats(engines.length, borrowed, borrowCount.sum(), totalWaitTime.sum(), maxWaitTime.get(),
+                borrowedTime, now - createdAt);
+    }
+
+    // Closes the idle engines that can be closed, and the borrowed ones when they
+    // are released
+    @Override
+    public void close() {
+        closed = true;
+        PooledEngine engine;
+        while ((engine = idle.poll()) != null) {
+            engine.close();
+        }
+    }
+
+    public static class PooledEngine {
+        private final ScriptEngine engine;
+        private final ModuleCache cache;
+        private final AbstractModule require;
+        private final Map<String, Object> snapshot;
+        private RequirePool pool;
+        // Time the engine was borrowed at, 0 when it is idle
+        private final AtomicLong borrowedAt = new AtomicLong();
+
+        private PooledEngine(ScriptEngine engine, Folder folder, String[] modules) throws ScriptException {
+            this.engine = engine;
+            this.cache = new ModuleCache();
+            try {
+                this.require = Require.enable(engine, folder, getBindings(), cache);
+                for (String module : modules) {
+                    require.require(module);
+                }
+                this.snapshot = new HashMap<>(getBindings());
+            } catch (ScriptException | RuntimeException | Error e) {
+                close();
+                throw e;
+            }
+        }
+
+        public ScriptEngine getScriptEngine() {
+            return engine;
+        }
+
+        public ModuleCache getModuleCache() {
+            return cache;
+        }
+
+        public AbstractModule getRequire() {
+            return require;
+        }
+
+        // The engine scope, where require is defined
+        public Bindings getBindings() {
+            return engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        }
+
+        // Removes the variables defined since the snapshot, or sets them to null
+        // when they cannot be removed, and puts back the ones that were replaced.
+        // Only the top-level variables of the engine scope are restored: changes
+        // to the state of loaded modules, such as their exports or variables of
+        // their own, are seen by the next borrower.
+        private void reset() {
+            Bindings bindings = getBindings();
+            List<String> added = new ArrayList<>();
+            for (String key : bindings.keySet()) {
+                if (!snapshot.containsKey(key)) {
+                    added.add(key);
+                }
+            }
+            for (String key : added) {
+                bindings.remove(key);
+                // Variables declared with var cannot be deleted from some globals
+                if (bindings.containsKey(key)) {
+                    bindings.put(key, null);
+                }
+            }
+            for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+                Object value = bindings.get(entry.getKey());
+                if (value != entry.getValue() && (value == null || !value.equals(entry.getValue()))) {
+                    bindings.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private void close() {
+            if (engine instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) engine).close();
+                } catch (Exception e) {
+                    // Nothing else to do
+                }
+            }
+        }
+    }
+}
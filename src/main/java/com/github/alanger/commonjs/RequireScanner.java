@@ -0,0 +1,175 @@
+package com.github.alanger.commonjs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Finds the require calls of a source that take a single string literal, such
+// as require('./foo'), skipping comments, strings, template literals and
+// regular expressions. It is only used to read modules ahead of time: a missed
+// call is loaded when it runs and an extra one is only read, so the lexer is
+// approximate where JavaScript is ambiguous.
+final class RequireScanner {
+    private static final String REQUIRE = "require";
+    // Keywords after which a slash starts a regular expression
+    private static final String[] REGEX_KEYWORDS = { "return", "typeof", "case", "do", "else", "in", "of", "new",
+            "delete", "void", "throw", "instanceof", "yield", "await" };
+
+    private RequireScanner() {
+    }
+
+    static List<String> scan(String code) {
+        List<String> requests = null;
+        int length = code.length();
+        // Last character that is not a space or a comment, 0 at the start
+        char previous = 0;
+        int previousWordStart = -1;
+        int i = 0;
+        while (i < length) {
+            char c = code.charAt(i);
+            if (c == '/' && i + 1 < length && code.charAt(i + 1) == '/') {
+                i = skipLine(code, i);
+                continue;
+            }
+            if (c == '/' && i + 1 < length && code.charAt(i + 1) == '*') {
+                int end = code.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipString(code, i, c);
+            } else if (c == '/' && startsRegex(code, previous, previousWordStart, i)) {
+                i = skipRegex(code, i);
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(code.charAt(i))) {
+                    i++;
+                }
+                if (i - start == REQUIRE.length() && code.startsWith(REQUIRE, start) && previous != '.') {
+                    String request = readRequest(code, i);
+                    if (request != null) {
+                        if (requests == null) {
+                            requests = new ArrayList<>();
+                        }
+                        requests.add(request);
+                    }
+                }
+                previous = code.charAt(i - 1);
+                previousWordStart = start;
+                continue;
+            } else {
+                i++;
+            }
+            previous = code.charAt(i - 1);
+            previousWordStart = -1;
+        }
+        return requests != null ? requests : Collections.emptyList();
+    }
+
+    // Reads ('request') after require, or returns null
+    private static String readRequest(String code, int i) {
+        i = skipSpaces(code, i);
+        if (i >= code.length() || code.charAt(i) != '(') {
+            return null;
+        }
+        i = skipSpaces(code, i + 1);
+        if (i >= code.length()) {
+            return null;
+        }
+        char quote = code.charAt(i);
+        if (quote != '\'' && quote != '"') {
+            return null;
+        }
+        int end = code.indexOf(quote, i + 1);
+        if (end < 0) {
+            return null;
+        }
+        String request = code.substring(i + 1, end);
+        // Escapes and line breaks are left to the engine
+        if (request.isEmpty() || request.indexOf('\\') >= 0 || request.indexOf('\n') >= 0) {
+            return null;
+        }
+        int close = skipSpaces(code, end + 1);
+        return close < code.length() && code.charAt(close) == ')' ? request : null;
+    }
+
+    private static int skipSpaces(String code, int i) {
+        while (i < code.length() && Character.isWhitespace(code.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLine(String code, int i) {
+        int end = code.indexOf('\n', i);
+        return end < 0 ? code.length() : end + 1;
+    }
+
+    // Template literals are skipped as a whole, with their substitutions
+    private static int skipString(String code, int i, char quote) {
+        i++;
+        while (i < code.length()) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            i++;
+            if (c == quote || (c == '\n' && quote != '`')) {
+                break;
+            }
+        }
+        return Math.min(i, code.length());
+    }
+
+    private static boolean startsRegex(String code, char previous, int previousWordStart, int i) {
+        if (previous == 0 || "(,=:[!&|?{};+-*%<>~^".indexOf(previous) >= 0) {
+            return true;
+        }
+        if (previousWordStart >= 0) {
+            for (String keyword : REGEX_KEYWORDS) {
+                if (code.startsWith(keyword, previousWordStart)
+                        && previousWordStart + keyword.length() == wordEnd(code, previousWordStart)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int wordEnd(String code, int start) {
+        int i = start;
+        while (i < code.length() && Character.isJavaIdentifierPart(code.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipRegex(String code, int i) {
+        boolean inClass = false;
+        i++;
+        while (i < code.length()) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            i++;
+            if (c == '\n') {
+                break;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            }
+        }
+        return Math.min(i, code.length());
+    }
+}
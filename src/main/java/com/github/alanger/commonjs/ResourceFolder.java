@@ -2,24 +2,68 @@ package com.github.alanger.commonjs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 public class ResourceFolder extends AbstractFolder {
 
     private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final Map<ClassLoader, Map<String, ResourceIndex>> INDEXES = new WeakHashMap<>();
+    private static final ResourceIndex NOT_INDEXED = new ResourceIndex(Collections.emptyMap(),
+            Collections.emptySet());
+
     private ClassLoader loader;
     private String resourcePath;
     private String encoding;
 
+    // Index of the resources under the root folder, null when the class loader
+    // cannot be indexed and every lookup goes through it
+    private ResourceIndex index;
+    private String indexPath;
+
     public String getResourcePath() {
         return resourcePath;
     }
 
+    public boolean isIndexed() {
+        return index != null;
+    }
+
     @Override
     public String getFile(String name) {
-        String resPath = (resourcePath == null || resourcePath.isEmpty()) ? "" : resourcePath + "/";
-        InputStream stream = loader.getResourceAsStream(resPath + name);
-        if (stream == null) {
-            return null;
+        InputStream stream;
+        if (index != null) {
+            URL url = index.files.get(indexPath + name);
+            if (url == null) {
+                return null;
+            }
+
+            try {
+                stream = url.openStream();
+            } catch (IOException ex) {
+                return null;
+            }
+        } else {
+            String resPath = (resourcePath == null || resourcePath.isEmpty()) ? "" : resourcePath + "/";
+            stream = loader.getResourceAsStream(resPath + name);
+            if (stream == null) {
+                return null;
+            }
         }
 
         try {
@@ -31,7 +75,15 @@ public class ResourceFolder extends AbstractFolder {
 
     @Override
     public Folder getFolder(String name) {
-        return new ResourceFolder(loader, resourcePath + "/" + name, this, getPath() + name + "/", encoding);
+        if (index != null && !index.folders.contains(indexPath + name)) {
+            return null;
+        }
+
+        ResourceFolder folder = new ResourceFolder(loader, resourcePath + "/" + name, this, getPath() + name + "/",
+                encoding);
+        folder.index = index;
+        folder.indexPath = indexPath + name + "/";
+        return folder;
     }
 
     private ResourceFolder(ClassLoader loader, String resourcePath, Folder parent, String displayPath,
@@ -45,6 +97,152 @@ public class ResourceFolder extends AbstractFolder {
     }
 
     public static ResourceFolder create(ClassLoader loader, String path, String encoding) {
-        return new ResourceFolder(loader, path, null, "/", encoding);
+        return create(loader, path, encoding, false);
+    }
+
+    // Without an index getFolder never returns null, and every getFile goes
+    // through ClassLoader.getResourceAsStream. The index is built once per class
+    // loader and path: resources added to the class loader afterwards, or in jars
+    // without directory entries, are not seen through it.
+    public static ResourceFolder create(ClassLoader loader, String path, String encoding, boolean indexed) {
+        ResourceFolder folder = new ResourceFolder(loader, path, null, "/", encoding);
+        if (indexed) {
+            folder.index = getIndex(loader, folder.resourcePath);
+            folder.indexPath = "";
+        }
+        return folder;
+    }
+
+    private static ResourceIndex getIndex(ClassLoader loader, String resourcePath) {
+        ResourceIndex index;
+        synchronized (INDEXES) {
+            index = INDEXES.computeIfAbsent(loader, l -> new HashMap<>()).get(resourcePath);
+        }
+
+        if (index == null) {
+            index = ResourceIndex.build(loader, resourcePath);
+            synchronized (INDEXES) {
+                INDEXES.computeIfAbsent(loader, l -> new HashMap<>()).putIfAbsent(resourcePath, index);
+            }
+        }
+
+        return index != NOT_INDEXED ? index : null;
+    }
+
+    // Entry names may contain characters that must be quoted in a URL, such as
+    // spaces, '%' or '#'
+    private static String encodePath(String name) throws IOException {
+        try {
+            return new URI(null, null, name, null).getRawPath();
+        } catch (URISyntaxException ex) {
+            throw new IOException("Invalid entry name: " + name, ex);
+        }
+    }
+
+    private static final class ResourceIndex {
+        // Paths relative to the root folder, with '/' as separator
+        private final Map<String, URL> files;
+        private final Set<String> folders;
+
+        private ResourceIndex(Map<String, URL> files, Set<String> folders) {
+            this.files = files;
+            this.folders = folders;
+        }
+
+        private static ResourceIndex build(ClassLoader loader, String resourcePath) {
+            // Class loaders do not list the root of jar files, so there is no way
+            // to build a complete index of the whole classpath
+            String prefix = resourcePath.endsWith("/") ? resourcePath.substring(0, resourcePath.length() - 1)
+                    : resourcePath;
+            if (prefix.isEmpty() || prefix.startsWith("/")) {
+                return NOT_INDEXED;
+            }
+
+            Map<String, URL> files = new HashMap<>();
+            Set<String> folders = new HashSet<>();
+            try {
+                // Jars without directory entries are not returned here. If such a jar
+                // shares the root folder with other classpath entries, create the
+                // folder without an index.
+                Enumeration<URL> roots = loader.getResources(prefix);
+                if (!roots.hasMoreElements()) {
+                    return NOT_INDEXED;
+                }
+
+                // Entries are added in classpath order, so the first one wins like
+                // in getResourceAsStream
+                while (roots.hasMoreElements()) {
+                    URL root = roots.nextElement();
+                    switch (root.getProtocol()) {
+                        case "file":
+                            indexDirectory(Path.of(root.toURI()), files, folders);
+                            break;
+                        case "jar":
+                            indexJar(root, prefix, files, folders);
+                            break;
+                        default:
+                            return NOT_INDEXED;
+                    }
+                }
+            } catch (IOException | URISyntaxException | RuntimeException ex) {
+                return NOT_INDEXED;
+            }
+
+            for (String file : files.keySet()) {
+                for (int i = file.indexOf('/'); i != -1; i = file.indexOf('/', i + 1)) {
+                    folders.add(file.substring(0, i));
+                }
+            }
+
+            return new ResourceIndex(Collections.unmodifiableMap(files), Collections.unmodifiableSet(folders));
+        }
+
+        private static void indexDirectory(Path root, Map<String, URL> files, Set<String> folders)
+                throws IOException {
+            try (Stream<Path> walk = Files.walk(root)) {
+                for (Path path : (Iterable<Path>) walk::iterator) {
+                    String relative = root.relativize(path).toString().replace('\\', '/');
+                    if (relative.isEmpty()) {
+                        continue;
+                    }
+                    if (Files.isDirectory(path)) {
+                        folders.add(relative);
+                    } else {
+                        files.putIfAbsent(relative, path.toUri().toURL());
+                    }
+                }
+            }
+        }
+
+        private static void indexJar(URL root, String prefix, Map<String, URL> files, Set<String> folders)
+                throws IOException {
+            URLConnection connection = root.openConnection();
+            if (!(connection instanceof JarURLConnection)) {
+                throw new IOException("Unsupported jar connection: " + root);
+            }
+
+            // The jar file is cached by the JDK and shared with the class loader, so
+            // it must not be closed here
+            JarURLConnection jarConnection = (JarURLConnection) connection;
+            JarFile jar = jarConnection.getJarFile();
+            String base = "jar:" + jarConnection.getJarFileURL() + "!/";
+            String entryPrefix = prefix + "/";
+
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!name.startsWith(entryPrefix) || name.length() == entryPrefix.length()) {
+                    continue;
+                }
+
+                String relative = name.substring(entryPrefix.length());
+                if (entry.isDirectory()) {
+                    folders.add(relative.substring(0, relative.length() - 1));
+                } else {
+                    files.putIfAbsent(relative, new URL(base + encodePath(name)));
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,127 @@
+package com.github.alanger.commonjs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU cache of module sources, weighted by the approximate number of
+// bytes retained. Misses are cached as entries without content. An instance
+// is thread-safe and can be shared by any number of CachingFolder.
+public class SourceCache {
+    // Approximate cost of the entry itself and its key object
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long weight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public static final class Entry {
+        private final String content;
+        private final long lastModified;
+        private final long length;
+
+        public Entry(String content, long lastModified, long length) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        // Null for a cached miss
+        public String getContent() {
+            return content;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    public SourceCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        long entryWeight = weigh(key, entry);
+        if (entryWeight > maxWeight) {
+            // Never cache what would flush the whole cache
+            remove(key);
+            return;
+        }
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= weigh(key, previous);
+        }
+        weight += entryWeight;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<String, Entry> e = eldest.next();
+            weight -= weigh(e.getKey(), e.getValue());
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            weight -= weigh(key, previous);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static long weigh(String key, Entry entry) {
+        long chars = key.length() + (entry.content != null ? entry.content.length() : 0);
+        return ENTRY_OVERHEAD + 2 * chars;
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.alanger.commonjs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Folder backed by a zip or jar archive. The central directory is read once
+// into a tree of folders, entries are only inflated when getFile is called.
+public class ZipFolder extends AbstractFolder implements Closeable {
+    private ZipFile zip;
+    private String encoding;
+
+    private final Map<String, ZipFolder> folders = new HashMap<>();
+    private final Map<String, ZipEntry> files = new HashMap<>();
+
+    private ZipFolder(ZipFile zip, Folder parent, String path, String encoding) {
+        super(parent, path);
+        this.zip = zip;
+        this.encoding = encoding;
+    }
+
+    public String getName() {
+        return zip.getName();
+    }
+
+    @Override
+    public String getFile(String name) {
+        ZipEntry entry = files.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        try (InputStream stream = zip.getInputStream(entry)) {
+            return inputStreamToString(stream, encoding);
+        } catch (IOException | IllegalStateException ex) {
+            // IllegalStateException is thrown once the archive is closed
+            return null;
+        }
+    }
+
+    @Override
+    public Folder getFolder(String name) {
+        return folders.get(name);
+    }
+
+    // Closes the archive shared by all the folders created from it
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    private ZipFolder addFolder(String name) {
+        ZipFolder folder = folders.get(name);
+        if (folder == null) {
+            folder = new ZipFolder(zip, this, getPath() + name + "/", encoding);
+            folders.put(name, folder);
+        }
+        return folder;
+    }
+
+    public static ZipFolder create(File file, String encoding) throws IOException {
+        return create(file, "", encoding);
+    }
+
+    // The path selects the folder of the archive used as root, for example
+    // "node_modules" or "META-INF/resources"
+    public static ZipFolder create(File file, String path, String encoding) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            return createIndex(zip, path, encoding);
+        } catch (RuntimeException ex) {
+            zip.close();
+            throw ex;
+        }
+    }
+
+    private static ZipFolder createIndex(ZipFile zip, String path, String encoding) {
+        String prefix = path.replace('\\', '/');
+        while (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix = prefix + "/";
+        }
+
+        ZipFolder root = new ZipFolder(zip, null, "/", encoding);
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+
+            ZipFolder current = root;
+            int start = prefix.length();
+            for (int end = name.indexOf('/', start); end != -1; end = name.indexOf('/', start)) {
+                if (end > start) {
+                    current = current.addFolder(name.substring(start, end));
+                }
+                start = end + 1;
+            }
+
+            if (start < name.length() && !entry.isDirectory()) {
+                current.files.put(name.substring(start), entry);
+            }
+        }
+        return root;
+    }
+}
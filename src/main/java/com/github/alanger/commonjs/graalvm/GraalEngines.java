@@ -0,0 +1,44 @@
+package com.github.alanger.commonjs.graalvm;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+
+import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+
+// Creates Graal.js script engines on one shared polyglot engine. Contexts of the
+// same polyglot engine share the parsed and compiled code of the sources they
+// evaluate, so a module loaded by one script engine is neither parsed nor
+// warmed up again by the next one.
+public final class GraalEngines {
+    private static volatile Engine shared;
+
+    private GraalEngines() {
+    }
+
+    public static Engine getSharedEngine() {
+        Engine engine = shared;
+        if (engine == null) {
+            synchronized (GraalEngines.class) {
+                engine = shared;
+                if (engine == null) {
+                    engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+                    shared = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    static boolean isShared(Engine engine) {
+        return engine != null && engine == shared;
+    }
+
+    public static GraalJSScriptEngine createScriptEngine() {
+        return createScriptEngine(Context.newBuilder("js"));
+    }
+
+    // The builder must not set an engine, its options are applied to the context
+    public static GraalJSScriptEngine createScriptEngine(Context.Builder builder) {
+        return GraalJSScriptEngine.create(getSharedEngine(), builder);
+    }
+}
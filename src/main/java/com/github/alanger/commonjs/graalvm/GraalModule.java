@@ -1,11 +1,24 @@
 package com.github.alanger.commonjs.graalvm;
 
-import javax.script.Bindings;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
@@ -17,14 +30,38 @@ import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
 
 public class GraalModule extends AbstractModule {
 
-    private Context context;
+    private static final int MAX_SOURCES = 4096;
+    private static final int MAX_PARSERS = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    private static final Map<GraalJSScriptEngine, WeakReference<Parsers>> PARSERS = new WeakHashMap<>();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Sources do not belong to a context, the same Source evaluated by contexts of
+    // a shared polyglot engine is only parsed once (see GraalEngines)
+    private static final Map<String, Source> SOURCES = Collections
+            .synchronizedMap(new LinkedHashMap<String, Source>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+                    return size() > MAX_SOURCES;
+                }
+            });
+
+    // Values of the context used by all the modules of the main module. It is set
+    // while AbstractModule.init runs in the super constructor, so this field must
+    // not have an initializer.
+    private volatile Natives natives;
+    // Handles of the module object and of the exports it holds, set the same way
+    private Value moduleValue;
+    private Object exportsObject;
+    private Value exportsValue;
+    // Contexts that parse the sources of preloaded modules, on the main module
+    private volatile Parsers parsers;
 
     public GraalModule(ScriptEngine engine, Folder folder, ModuleCache cache, String filename, Object module,
             Object exports, AbstractModule parent, AbstractModule root) throws ScriptException {
         super(engine, folder, cache, filename, module, exports, parent, root);
-
-        GraalJSScriptEngine gjse = (GraalJSScriptEngine) engine;
-        this.context = gjse.getPolyglotContext();
     }
 
     protected GraalModule compileJsonModule(Folder parent, String fullPath, String code) throws ScriptException {
@@ -37,18 +74,8 @@ public class GraalModule extends AbstractModule {
     }
 
     protected GraalModule compileJavaScriptModule(Folder parent, String fullPath, String code) throws ScriptException {
-        Bindings engineScope = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-        Object module = createSafeBindings();
-        for (String key : engineScope.keySet()) {
-            putObject(module, key, engineScope.get(key));
-        }
-
-        // If we have cached bindings, use them to rebind exports instead of creating
-        // new ones
-        Object exports = refCache.get().get(fullPath);
-        if (exports == null) {
-            exports = createSafeBindings();
-        }
+        Object module = createModuleObject();
+        Object exports = createSafeBindings();
 
         GraalModule created = new GraalModule(engine, parent, cache, fullPath, module, exports, this, mainModule);
 
@@ -56,11 +83,7 @@ public class GraalModule extends AbstractModule {
         String filename = split[split.length - 1];
         String dirname = fullPath.substring(0, Math.max(fullPath.length() - filename.length() - 1, 0));
 
-        // The \n at the end is to take care of files ending with a comment
-        Source source = Source.newBuilder("js",
-                "(function (exports, require, module, __filename, __dirname) {" + code + "\n})", fullPath)
-                .buildLiteral();
-        Value function = context.eval(source);
+        Value function = natives().context.eval(getSource(fullPath, code));
         function.execute(created.exports, created, created.module, filename, dirname);
 
         // Scripts are free to replace the global exports symbol with their own, so we
@@ -71,6 +94,206 @@ public class GraalModule extends AbstractModule {
         return created;
     }
 
+    // Contexts of the shared polyglot engine reuse the sources parsed by others,
+    // so the sources are parsed by a few contexts of their own, built like the
+    // context of the script engine and kept for the next preloads. An engine of
+    // its own only shares them with that context, which one thread uses at a
+    // time, so they are left to the require.
+    @Override
+    protected void precompileJavaScriptModules(Map<String, String> sources, Executor executor) {
+        GraalJSScriptEngine scriptEngine = (GraalJSScriptEngine) engine;
+        if (!GraalEngines.isShared(scriptEngine.getPolyglotEngine())) {
+            return;
+        }
+
+        List<Source> parsed = new ArrayList<>(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            parsed.add(getSource(source.getKey(), source.getValue()));
+        }
+
+        // A context is used by one thread at a time. The contexts are taken here,
+        // so that a concurrent preload of the engine waits on this thread and not
+        // on the executor.
+        BlockingQueue<Context> idle = parsers(scriptEngine).idle;
+        List<Context> contexts = new ArrayList<>(MAX_PARSERS);
+        try {
+            contexts.add(idle.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        idle.drainTo(contexts, Math.min(parsed.size(), MAX_PARSERS) - 1);
+        try {
+            int workers = contexts.size();
+            runInParallel(workers, executor, worker -> {
+                Context context = contexts.get(worker);
+                for (int i = worker; i < parsed.size(); i += workers) {
+                    try {
+                        context.parse(parsed.get(i));
+                    } catch (PolyglotException e) {
+                        // Thrown again when the module is required
+                    }
+                }
+            });
+        } finally {
+            idle.addAll(contexts);
+        }
+    }
+
+    // The parser contexts of a script engine are shared by its main modules, and
+    // only weakly referenced here like CompiledScriptCache does
+    private Parsers parsers(GraalJSScriptEngine scriptEngine) {
+        GraalModule main = mainModule instanceof GraalModule ? (GraalModule) mainModule : this;
+        Parsers found = main.parsers;
+        if (found == null) {
+            synchronized (PARSERS) {
+                WeakReference<Parsers> reference = PARSERS.get(scriptEngine);
+                found = reference != null ? reference.get() : null;
+                if (found == null) {
+                    List<Context> contexts = new ArrayList<>(MAX_PARSERS);
+                    for (int i = 0; i < MAX_PARSERS; i++) {
+                        ScriptContext scriptContext = new SimpleScriptContext();
+                        scriptContext.setBindings(scriptEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
+                        contexts.add(scriptEngine.getPolyglotContext(scriptContext));
+                    }
+                    found = new Parsers(contexts);
+                    PARSERS.put(scriptEngine, new WeakReference<>(found));
+                }
+            }
+            main.parsers = found;
+        }
+        return found;
+    }
+
+    // Closes its contexts once no main module of the engine keeps it
+    private static final class Parsers {
+        private final BlockingQueue<Context> idle;
+
+        private Parsers(List<Context> contexts) {
+            this.idle = new ArrayBlockingQueue<>(contexts.size(), false, contexts);
+            CLEANER.register(this, () -> close(contexts));
+        }
+
+        private static void close(List<Context> contexts) {
+            for (Context context : contexts) {
+                try {
+                    context.close();
+                } catch (RuntimeException e) {
+                    // Nothing else to do
+                }
+            }
+        }
+    }
+
+    private static Source getSource(String fullPath, String code) {
+        String wrapped = wrapModuleSource(code);
+        Source source = SOURCES.get(fullPath);
+        if (source == null || !wrapped.contentEquals(source.getCharacters())) {
+            source = Source.newBuilder("js", wrapped, fullPath).cached(true).buildLiteral();
+            SOURCES.put(fullPath, source);
+        }
+        return source;
+    }
+
+    // Objects are created and read as polyglot values. They are converted to Java
+    // objects only when they are returned, like the engine does.
+    @Override
+    protected Object createSafeBindings() throws ScriptException {
+        return natives().objectConstructor.newInstance().as(Object.class);
+    }
+
+    @Override
+    protected Object createModuleObject() throws ScriptException {
+        Natives natives = natives();
+        return natives.objectCreate.execute(natives.global).as(Object.class);
+    }
+
+    @Override
+    protected Object parseJson(String json) throws ScriptException {
+        try {
+            return natives().jsonParse.execute(json).as(Object.class);
+        } catch (PolyglotException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    @Override
+    protected Object getObject(Object thizz, String key) throws ScriptException {
+        Value value = valueOf(thizz);
+        if (value.isHostObject()) {
+            return super.getObject(thizz, key);
+        }
+        Value member = value.getMember(key);
+        Object found = member != null ? member.as(Object.class) : null;
+        rememberExports(thizz, key, found, member);
+        return found;
+    }
+
+    // Returns the previous value of the member, like Map.put
+    @Override
+    protected Object putObject(Object thizz, String key, Object value) throws ScriptException {
+        Value object = valueOf(thizz);
+        if (object.isHostObject()) {
+            return super.putObject(thizz, key, value);
+        }
+        Value previous = object.getMember(key);
+        object.putMember(key, value);
+        rememberExports(thizz, key, value, null);
+        return previous != null && !previous.isNull() ? previous.as(Object.class) : null;
+    }
+
+    // The module object and its exports are the objects the loader reads and
+    // writes, their handles are only created once
+    private Value valueOf(Object thizz) {
+        if (thizz != null && thizz == module) {
+            if (moduleValue == null) {
+                moduleValue = natives().context.asValue(thizz);
+            }
+            return moduleValue;
+        }
+        if (thizz != null && thizz == exportsObject) {
+            if (exportsValue == null) {
+                exportsValue = natives().context.asValue(thizz);
+            }
+            return exportsValue;
+        }
+        return natives().context.asValue(thizz);
+    }
+
+    private void rememberExports(Object thizz, String key, Object exports, Value handle) {
+        if (thizz != null && thizz == module && "exports".equals(key)) {
+            exportsObject = exports;
+            exportsValue = handle;
+        }
+    }
+
+    private Natives natives() {
+        GraalModule main = mainModule instanceof GraalModule ? (GraalModule) mainModule : this;
+        Natives found = main.natives;
+        if (found == null) {
+            found = new Natives(((GraalJSScriptEngine) engine).getPolyglotContext());
+            main.natives = found;
+        }
+        return found;
+    }
+
+    private static final class Natives {
+        private final Context context;
+        private final Value global;
+        private final Value objectConstructor;
+        private final Value objectCreate;
+        private final Value jsonParse;
+
+        private Natives(Context context) {
+            this.context = context;
+            // globalThis is not defined with the older ECMAScript versions
+            this.global = context.eval("js", "(function() { return this; })()");
+            this.objectConstructor = global.getMember("Object");
+            this.objectCreate = objectConstructor.getMember("create");
+            this.jsonParse = global.getMember("JSON").getMember("parse");
+        }
+    }
+
     @Override
     protected Object getNativeModule() throws ScriptException {
         return this;
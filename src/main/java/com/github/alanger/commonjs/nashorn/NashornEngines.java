@@ -0,0 +1,67 @@
+package com.github.alanger.commonjs.nashorn;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+import com.github.alanger.commonjs.CodeCache;
+import com.github.alanger.commonjs.Require;
+
+// Creates Nashorn script engines that keep the classes they compile in a code
+// cache directory. Nashorn finds the classes of a script by the digest of its
+// source, so a module compiled before a restart is loaded from the directory
+// instead of being compiled again, and a changed module is compiled again.
+public final class NashornEngines {
+    // Read by Nashorn when an engine with --persistent-code-cache is created.
+    // There is no engine option for it, so it is set once for the JVM and never
+    // changed, and engines created at the same time by other threads all see the
+    // same directory.
+    private static final String CODE_CACHE_DIRECTORY = "nashorn.persistent.code.cache";
+
+    private NashornEngines() {
+    }
+
+    // Fails when Nashorn already caches code in another directory
+    public static ScriptEngine createScriptEngine(CodeCache codeCache, String... args) {
+        Path directory = codeCache.getDirectory().resolve("nashorn").toAbsolutePath().normalize();
+        synchronized (NashornEngines.class) {
+            String current = System.getProperty(CODE_CACHE_DIRECTORY);
+            if (current == null) {
+                System.setProperty(CODE_CACHE_DIRECTORY, directory.toString());
+            } else if (!Paths.get(current).toAbsolutePath().normalize().equals(directory)) {
+                throw new IllegalStateException("Nashorn already caches code in " + current);
+            }
+        }
+
+        String[] options = Arrays.copyOf(args, args.length + 1);
+        options[args.length] = "--persistent-code-cache";
+        return createScriptEngine(options);
+    }
+
+    // The factory is in the package of the engine, which depends on the JDK (see
+    // NashornMirrors), so it is found by name and called through a method handle
+    private static ScriptEngine createScriptEngine(String[] options) {
+        for (ScriptEngineFactory factory : new ScriptEngineManager().getEngineFactories()) {
+            if (!factory.getNames().contains(Require.NASHORN)) {
+                continue;
+            }
+            try {
+                MethodHandle getScriptEngine = MethodHandles.publicLookup().findVirtual(factory.getClass(),
+                        "getScriptEngine", MethodType.methodType(ScriptEngine.class, String[].class));
+                return (ScriptEngine) getScriptEngine.invoke(factory, options);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot create a Nashorn engine", e);
+            }
+        }
+        throw new IllegalStateException("Nashorn is not available");
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.alanger.commonjs.nashorn;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import javax.script.ScriptException;
+
+// Methods of the ScriptObjectMirror class of a Nashorn engine, looked up once
+// per engine class. The mirror is in the package of the engine, which is
+// jdk.nashorn.api.scripting up to JDK 14 and org.openjdk.nashorn.api.scripting
+// for the standalone Nashorn, so it is not referenced directly.
+final class NashornMirrors {
+    private static final ClassValue<NashornMirrors> MIRRORS = new ClassValue<NashornMirrors>() {
+        @Override
+        protected NashornMirrors computeValue(Class<?> engineClass) {
+            return new NashornMirrors(engineClass);
+        }
+    };
+
+    private final Class<?> mirrorClass;
+    private final MethodHandle call;
+    private final MethodHandle newObject;
+    private final ReflectiveOperationException failure;
+
+    private NashornMirrors(Class<?> engineClass) {
+        Class<?> mirrorClass = null;
+        MethodHandle call = null;
+        MethodHandle newObject = null;
+        ReflectiveOperationException failure = null;
+        try {
+            String className = engineClass.getPackage().getName() + ".ScriptObjectMirror";
+            mirrorClass = Class.forName(className, true, engineClass.getClassLoader());
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            // Object receivers so that the handles can be called with invokeExact
+            call = lookup.findVirtual(mirrorClass, "call",
+                    MethodType.methodType(Object.class, Object.class, Object[].class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class, Object[].class));
+            newObject = lookup.findVirtual(mirrorClass, "newObject",
+                    MethodType.methodType(Object.class, Object[].class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            failure = e;
+        }
+        this.mirrorClass = mirrorClass;
+        this.call = call;
+        this.newObject = newObject;
+        this.failure = failure;
+    }
+
+    static NashornMirrors of(Class<?> engineClass) {
+        return MIRRORS.get(engineClass);
+    }
+
+    boolean isMirror(Object object) {
+        return mirrorClass != null && mirrorClass.isInstance(object);
+    }
+
+    // Calls a script function with the given this
+    Object call(Object function, Object thiz, Object... args) throws ScriptException {
+        if (failure != null) {
+            throw new ScriptException(failure);
+        }
+        try {
+            return (Object) call.invokeExact(function, thiz, args);
+        } catch (Throwable e) {
+            throw toScriptException(e);
+        }
+    }
+
+    // Calls a script function as a constructor
+    Object newObject(Object constructor, Object... args) throws ScriptException {
+        if (failure != null) {
+            throw new ScriptException(failure);
+        }
+        try {
+            return (Object) newObject.invokeExact(constructor, args);
+        } catch (Throwable e) {
+            throw toScriptException(e);
+        }
+    }
+
+    private static ScriptException toScriptException(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return e instanceof ScriptException ? (ScriptException) e : new ScriptException((Exception) e);
+    }
+}
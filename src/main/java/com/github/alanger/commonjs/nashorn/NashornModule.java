@@ -1,9 +1,5 @@
 package com.github.alanger.commonjs.nashorn;
 
-import java.lang.reflect.Method;
-
-import javax.script.Bindings;
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
@@ -14,6 +10,10 @@ import com.github.alanger.commonjs.Paths;
 
 public class NashornModule extends AbstractModule {
 
+    // Object constructor of the engine, kept by the main module to create objects
+    // without evaluating a script
+    private volatile Object objectConstructor;
+
     public NashornModule(ScriptEngine engine, Folder folder, ModuleCache cache, String filename, Object module,
             Object exports, AbstractModule parent, AbstractModule root) throws ScriptException {
         super(engine, folder, cache, filename, module, exports, parent, root);
@@ -33,18 +33,8 @@ public class NashornModule extends AbstractModule {
     @Override
     protected NashornModule compileJavaScriptModule(Folder parent, String fullPath, String code)
             throws ScriptException {
-        Bindings engineScope = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-        Object module = createSafeBindings();
-        for (String key : engineScope.keySet()) {
-            putObject(module, key, engineScope.get(key));
-        }
-
-        // If we have cached bindings, use them to rebind exports instead of creating
-        // new ones
-        Object exports = refCache.get().get(fullPath);
-        if (exports == null) {
-            exports = createSafeBindings();
-        }
+        Object module = createModuleObject();
+        Object exports = createSafeBindings();
 
         NashornModule created = new NashornModule(engine, parent, cache, fullPath, module, exports, this, mainModule);
 
@@ -57,26 +47,14 @@ public class NashornModule extends AbstractModule {
         engine.put(ScriptEngine.FILENAME, fullPath);
 
         try {
-            // This mimics how Node wraps module in a function. I used to pass a 2nd
-            // parameter to eval to override global context, but it caused problems
-            // Object.create. The \n at the end is to take care of files ending with a
-            // comment
-
-            Object function = engine
-                    .eval("(function (exports, require, module, __filename, __dirname) {" + code + "\n})");
+            // This mimics how Node wraps module in a function. The function is created
+            // in the global of the bindings require was enabled in.
+            Object function = evalModuleFunction(fullPath, code);
             Object[] args = { created.exports, created, created.module, filename, dirname };
 
             // Dirty fix for Nashorn: "TypeError: [object Object] is not an Object"
             // Calling ((<package>.ScriptObjectMirror)function).call(created, args);
-            try {
-                // Nashorn moved to external library after JDK11
-                String className = engine.getClass().getPackage().getName() + ".ScriptObjectMirror";
-                Class<?> scriptObjectClass = Class.forName(className);
-                Method call = scriptObjectClass.getMethod("call", Object.class, Object[].class);
-                call.invoke(function, created, args);
-            } catch (Exception e) {
-                throw new ScriptException(e);
-            }
+            NashornMirrors.of(engine.getClass()).call(function, created, args);
         } finally {
             engine.put(ScriptEngine.FILENAME, previousFilename);
         }
@@ -89,6 +67,21 @@ public class NashornModule extends AbstractModule {
         return created;
     }
 
+    @Override
+    protected Object createSafeBindings() throws ScriptException {
+        NashornModule main = mainModule instanceof NashornModule ? (NashornModule) mainModule : this;
+        NashornMirrors mirrors = NashornMirrors.of(engine.getClass());
+        if (main.objectConstructor == null) {
+            Object constructor = engine.eval("Object");
+            // Another engine named Oracle Nashorn, let's keep to the script
+            main.objectConstructor = mirrors.isMirror(constructor) ? constructor : Boolean.FALSE;
+        }
+        if (main.objectConstructor == Boolean.FALSE) {
+            return super.createSafeBindings();
+        }
+        return mirrors.newObject(main.objectConstructor);
+    }
+
     @Override
     protected Object getNativeModule() throws ScriptException {
         return this;
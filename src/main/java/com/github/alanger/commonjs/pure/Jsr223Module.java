@@ -1,11 +1,8 @@
 package com.github.alanger.commonjs.pure;
 
-import javax.script.Bindings;
 import javax.script.Invocable;
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import com.github.alanger.commonjs.AbstractModule;
 import com.github.alanger.commonjs.Folder;
@@ -13,10 +10,17 @@ import com.github.alanger.commonjs.ModuleCache;
 import com.github.alanger.commonjs.ModuleException;
 import com.github.alanger.commonjs.Paths;
 
+// Works with any engine that implements Invocable, which modules are called
+// through
 public class Jsr223Module extends AbstractModule {
 
     private Object nativeModule;
 
+    // Property accessors and require function factory, compiled once by the main
+    // module and shared by all its modules. It is set while AbstractModule.init
+    // runs in the super constructor, so this field must not have an initializer.
+    private volatile Object helpers;
+
     public Jsr223Module(ScriptEngine engine, Folder folder, ModuleCache cache, String filename, Object module,
             Object exports, AbstractModule parent, AbstractModule root) throws ScriptException {
         super(engine, folder, cache, filename, module, exports, parent, root);
@@ -35,18 +39,8 @@ public class Jsr223Module extends AbstractModule {
 
     @Override
     protected Jsr223Module compileJavaScriptModule(Folder parent, String fullPath, String code) throws ScriptException {
-        Bindings engineScope = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-        Object module = createSafeBindings();
-        for (String key : engineScope.keySet()) {
-            putObject(module, key, engineScope.get(key));
-        }
-
-        // If we have cached bindings, use them to rebind exports instead of creating
-        // new ones
-        Object exports = refCache.get().get(fullPath);
-        if (exports == null) {
-            exports = createSafeBindings();
-        }
+        Object module = createModuleObject();
+        Object exports = createSafeBindings();
 
         Jsr223Module created = new Jsr223Module(engine, parent, cache, fullPath, module, exports, this, mainModule);
 
@@ -59,8 +53,7 @@ public class Jsr223Module extends AbstractModule {
         engine.put(ScriptEngine.FILENAME, fullPath);
 
         try {
-            Object function = engine
-                    .eval("(function (exports, require, module, __filename, __dirname) {" + code + "\n})");
+            Object function = evalModuleFunction(fullPath, code);
             Object[] args = { created.exports, created.getNativeModule(), created.module, filename, dirname };
 
             Invocable invocable = (Invocable) engine;
@@ -84,19 +77,8 @@ public class Jsr223Module extends AbstractModule {
     @Override
     protected Object getNativeModule() throws ScriptException {
         if (this.nativeModule == null) {
-            SimpleScriptContext ctx = new SimpleScriptContext();
-            ctx.setAttribute("JAVA_MODULE", this, ScriptContext.ENGINE_SCOPE);
-
-            String me = ModuleException.class.getCanonicalName();
-            this.nativeModule = engine.eval(String.join("\n",
-                    "(function(path) {",
-                    "  try {",
-                    "    return JAVA_MODULE.require(path)",
-                    "  } catch (e) {",
-                    "    throw new " + me + "(e.message, 'MODULE_NOT_FOUND')",
-                    "  }",
-                    "})"),
-                    ctx);
+            // One closure over this module, the function creating it is compiled once
+            this.nativeModule = invoke("require", this);
             putObject(nativeModule, "main", this.mainModule.getModule());
         }
         return this.nativeModule;
@@ -104,17 +86,41 @@ public class Jsr223Module extends AbstractModule {
 
     @Override
     protected Object getObject(Object thizz, String key) throws ScriptException {
-        SimpleScriptContext ctx = new SimpleScriptContext();
-        ctx.setAttribute("thizz", thizz, ScriptContext.ENGINE_SCOPE);
-        return engine.eval("thizz['" + key + "']", ctx);
+        return invoke("get", thizz, key);
     }
 
     @Override
     public Object putObject(Object thizz, String key, Object value) throws ScriptException {
-        SimpleScriptContext ctx = new SimpleScriptContext();
-        ctx.setAttribute("thizz", thizz, ScriptContext.ENGINE_SCOPE);
-        ctx.setAttribute("value", value, ScriptContext.ENGINE_SCOPE);
-        return engine.eval("thizz['" + key + "'] = value", ctx);
+        return invoke("set", thizz, key, value);
+    }
+
+    private Object invoke(String helper, Object... args) throws ScriptException {
+        Jsr223Module main = mainModule instanceof Jsr223Module ? (Jsr223Module) mainModule : this;
+        if (main.helpers == null) {
+            // Methods of an object rather than functions, invokeMethod is the one call
+            // all engines support
+            String me = ModuleException.class.getCanonicalName();
+            main.helpers = engine.eval(String.join("\n",
+                    "({",
+                    "  get: function(thizz, key) { return thizz[key]; },",
+                    "  set: function(thizz, key, value) { var previous = thizz[key]; thizz[key] = value;"
+                            + " return previous; },",
+                    "  require: function(javaModule) {",
+                    "    return function(path) {",
+                    "      try {",
+                    "        return javaModule.require(path)",
+                    "      } catch (e) {",
+                    "        throw new " + me + "(e.message, 'MODULE_NOT_FOUND')",
+                    "      }",
+                    "    }",
+                    "  }",
+                    "})"));
+        }
+        try {
+            return ((Invocable) engine).invokeMethod(main.helpers, helper, args);
+        } catch (NoSuchMethodException e) {
+            throw new ScriptException(e);
+        }
     }
 
 }
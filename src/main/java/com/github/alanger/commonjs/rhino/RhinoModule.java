@@ -1,32 +1,140 @@
 package com.github.alanger.commonjs.rhino;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 
 import com.github.alanger.commonjs.AbstractModule;
+import com.github.alanger.commonjs.CodeCache;
 import com.github.alanger.commonjs.Folder;
 import com.github.alanger.commonjs.ModuleCache;
+import com.github.alanger.commonjs.Paths;
 import com.github.alanger.commonjs.pure.Jsr223Module;
 
 public class RhinoModule extends Jsr223Module implements Function {
 
+    // Optimization level modules are compiled with, -1 for the interpreter. The
+    // level of the current Context by default.
+    // Example: -Djsr223.rhino.optimization.level=9
+    public static final String OPTIMIZATION_LEVEL = "jsr223.rhino.optimization.level";
+
+    private static final int MIN_INDEXED = 8;
+
     private Scriptable prototype;
     private Scriptable parent;
+    // Scope of the engine modules run in, kept by the main module
+    private volatile Scriptable runtimeScope;
+    // Properties with integer ids, which are not bindings of the module. The
+    // slots and the ids are guarded by the module, which the threads sharing a
+    // concurrent ModuleCache use at the same time.
+    private Object[] indexed;
+    private Map<Integer, Object> sparse;
+    // Ids of the properties, built again once they change
+    private Object[] ids;
 
     public RhinoModule(ScriptEngine engine, Folder folder, ModuleCache cache, String filename, Object module,
             Object exports, AbstractModule parent, AbstractModule root) throws ScriptException {
         super(engine, folder, cache, filename, module, exports, parent, root);
     }
 
+    @Override
+    protected RhinoModule compileJsonModule(Folder parent, String fullPath, String code) throws ScriptException {
+        Object module = createSafeBindings();
+        Object exports = createSafeBindings();
+        RhinoModule created = new RhinoModule(engine, parent, cache, fullPath, module, exports, this, mainModule);
+        created.exports = parseJson(code);
+        created.setLoaded();
+        return created;
+    }
+
+    // Modules are compiled with the Context API instead of going through the
+    // script engine, and their compiled scripts are shared by all engines
+    @Override
+    protected RhinoModule compileJavaScriptModule(Folder parent, String fullPath, String code) throws ScriptException {
+        Object module = createModuleObject();
+        Object exports = createSafeBindings();
+
+        RhinoModule created = new RhinoModule(engine, parent, cache, fullPath, module, exports, this, mainModule);
+
+        String[] split = Paths.splitPath(fullPath);
+        String filename = split[split.length - 1];
+        String dirname = fullPath.substring(0, Math.max(fullPath.length() - filename.length() - 1, 0));
+
+        Scriptable scope = getRuntimeScope();
+        Context cx = Context.enter();
+        try {
+            int level = Integer.getInteger(OPTIMIZATION_LEVEL, cx.getOptimizationLevel());
+            Script script = RhinoScripts.get(cx, fullPath, wrapModuleSource(code), level, cache.getCodeCache());
+            Function function = (Function) script.exec(cx, scope);
+            Object[] args = { created.exports, created, created.module, filename, dirname };
+            function.call(cx, scope, created, args);
+        } catch (RhinoException e) {
+            ScriptException se = new ScriptException(e.toString(), e.sourceName(), e.lineNumber());
+            se.initCause(e);
+            throw se;
+        } finally {
+            Context.exit();
+        }
+
+        // Scripts are free to replace the global exports symbol with their own, so we
+        // reload it from the module object after compiling the code.
+        created.exports = getObject(created.module, "exports");
+
+        created.setLoaded();
+        return created;
+    }
+
+    // A Context per worker compiles the scripts, which RhinoScripts keeps for the
+    // Context of the engine
+    @Override
+    protected void precompileJavaScriptModules(Map<String, String> sources, Executor executor) {
+        CodeCache codeCache = cache.getCodeCache();
+        List<Map.Entry<String, String>> entries = new ArrayList<>(sources.entrySet());
+        int workers = Math.min(entries.size(), Runtime.getRuntime().availableProcessors());
+        runInParallel(workers, executor, worker -> {
+            Context cx = Context.enter();
+            try {
+                int level = Integer.getInteger(OPTIMIZATION_LEVEL, cx.getOptimizationLevel());
+                for (int i = worker; i < entries.size(); i += workers) {
+                    Map.Entry<String, String> source = entries.get(i);
+                    try {
+                        RhinoScripts.get(cx, source.getKey(), wrapModuleSource(source.getValue()), level, codeCache);
+                    } catch (RhinoException e) {
+                        // Thrown again when the module is required
+                    }
+                }
+            } finally {
+                Context.exit();
+            }
+        });
+    }
+
+    // The top level scope of the engine's scripts, which sees the variables of
+    // the engine scope
+    private Scriptable getRuntimeScope() throws ScriptException {
+        RhinoModule main = mainModule instanceof RhinoModule ? (RhinoModule) mainModule : this;
+        if (main.runtimeScope == null) {
+            main.runtimeScope = (Scriptable) engine.eval("this");
+        }
+        return main.runtimeScope;
+    }
+
     @Override
     protected Object getNativeModule() throws ScriptException {
         return this;
@@ -55,63 +163,126 @@ public class RhinoModule extends Jsr223Module implements Function {
     }
 
     @Override
-    public Object get(String name, Scriptable start) {
-        return super.get(name);
+    public synchronized Object get(String name, Scriptable start) {
+        Object value = super.get(name);
+        return value != null || super.containsKey(name) ? value : NOT_FOUND;
     }
 
     @Override
-    public Object get(int index, Scriptable start) {
-        return (new ArrayList<Object>(super.values())).get(index);
+    public synchronized Object get(int index, Scriptable start) {
+        if (indexed != null && index >= 0 && index < indexed.length) {
+            return indexed[index];
+        }
+        if (sparse != null) {
+            Object value = sparse.get(index);
+            if (value != null || sparse.containsKey(index)) {
+                return value;
+            }
+        }
+        return NOT_FOUND;
     }
 
     @Override
-    public boolean has(String name, Scriptable start) {
+    public synchronized boolean has(String name, Scriptable start) {
         return super.containsKey(name);
     }
 
     @Override
-    public boolean has(int index, Scriptable start) {
-        return (new ArrayList<Object>(super.values())).get(index) != null;
+    public synchronized boolean has(int index, Scriptable start) {
+        return get(index, start) != NOT_FOUND;
     }
 
     @Override
     public void put(String name, Scriptable start, Object value) {
-        super.put(name, value);
+        put(name, value);
     }
 
+    // Integer ids are kept in an array as long as they are dense enough, the
+    // others in a map
     @Override
-    public void put(int index, Scriptable start, Object value) {
-        if (index + 1 < super.size()) {
-            int i = 0;
-            for (Map.Entry<String, Object> entry : super.entrySet()) {
-                if (i == index) {
-                    super.put(entry.getKey(), value);
-                    break;
-                }
-                i++;
+    public synchronized void put(int index, Scriptable start, Object value) {
+        int length = indexed != null ? indexed.length : 0;
+        if (index >= length && index < Math.max(MIN_INDEXED, length * 2)) {
+            grow(Math.max(MIN_INDEXED, length * 2));
+            length = indexed.length;
+        }
+        if (index >= 0 && index < length) {
+            if (indexed[index] == NOT_FOUND) {
+                ids = null;
             }
+            indexed[index] = value;
         } else {
-            throw Context.reportRuntimeError("External array index out of bounds ");
+            if (sparse == null) {
+                sparse = new HashMap<>();
+            }
+            if (!sparse.containsKey(index)) {
+                ids = null;
+            }
+            sparse.put(index, value);
         }
     }
 
+    private void grow(int length) {
+        Object[] grown = new Object[length];
+        int previous = 0;
+        if (indexed != null) {
+            previous = indexed.length;
+            System.arraycopy(indexed, 0, grown, 0, previous);
+        }
+        Arrays.fill(grown, previous, length, NOT_FOUND);
+        if (sparse != null) {
+            for (Iterator<Map.Entry<Integer, Object>> it = sparse.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Integer, Object> entry = it.next();
+                if (entry.getKey() < length) {
+                    grown[entry.getKey()] = entry.getValue();
+                    it.remove();
+                }
+            }
+        }
+        indexed = grown;
+    }
+
     @Override
     public void delete(String name) {
-        super.remove(name);
+        remove(name);
     }
 
     @Override
-    public void delete(int index) {
-        if (index + 1 < super.size()) {
-            int i = 0;
-            for (Map.Entry<String, Object> entry : super.entrySet()) {
-                if (i == index) {
-                    super.remove(entry.getKey());
-                    break;
-                }
-                i++;
+    public synchronized void delete(int index) {
+        if (indexed != null && index >= 0 && index < indexed.length) {
+            if (indexed[index] != NOT_FOUND) {
+                indexed[index] = NOT_FOUND;
+                ids = null;
             }
+        } else if (sparse != null && sparse.containsKey(index)) {
+            sparse.remove(index);
+            ids = null;
+        }
+    }
+
+    // Named properties are the bindings of the module, the ids are invalidated
+    // whatever the way they are changed
+
+    @Override
+    public synchronized Object put(String name, Object value) {
+        if (!super.containsKey(name)) {
+            ids = null;
         }
+        return super.put(name, value);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        if (super.containsKey(key)) {
+            ids = null;
+        }
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        ids = null;
     }
 
     @Override
@@ -135,8 +306,26 @@ public class RhinoModule extends Jsr223Module implements Function {
     }
 
     @Override
-    public Object[] getIds() {
-        return Context.emptyArgs;
+    public synchronized Object[] getIds() {
+        Object[] result = ids;
+        if (result == null) {
+            List<Object> list = new ArrayList<>(size());
+            if (indexed != null) {
+                for (int i = 0; i < indexed.length; i++) {
+                    if (indexed[i] != NOT_FOUND) {
+                        list.add(i);
+                    }
+                }
+            }
+            if (sparse != null) {
+                list.addAll(new TreeSet<>(sparse.keySet()));
+            }
+            list.addAll(keySet());
+            result = list.isEmpty() ? Context.emptyArgs : list.toArray();
+            ids = result;
+        }
+        // Callers are free to modify the array
+        return result.length == 0 ? result : result.clone();
     }
 
     @Override
@@ -0,0 +1,144 @@
+package com.github.alanger.commonjs.rhino;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import com.github.alanger.commonjs.CodeCache;
+
+// Module wrappers compiled with the Rhino Context API. A compiled Script does
+// not belong to a scope or a thread, it is executed in the scope of each engine
+// to create the function of the module there, so one cache serves every engine
+// and every thread of the JVM.
+final class RhinoScripts {
+    private static final int MAX_SCRIPTS = 4096;
+    private static final String CLASS_NAME = "org.mozilla.javascript.gen.CommonJsModule";
+
+    private static final Map<String, Entry> SCRIPTS = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SCRIPTS;
+        }
+    };
+
+    private RhinoScripts() {
+    }
+
+    // Returns the script compiled for the path, compiling it when there is none,
+    // when the source changed or when it was compiled at another optimization
+    // level. Scripts compiled to classes are first looked up in the code cache.
+    static Script get(Context cx, String fullPath, String source, int optimizationLevel, CodeCache codeCache) {
+        Entry entry;
+        synchronized (SCRIPTS) {
+            entry = SCRIPTS.get(fullPath);
+        }
+        if (entry != null && entry.optimizationLevel == optimizationLevel && entry.source.equals(source)) {
+            return entry.script;
+        }
+
+        int previousLevel = cx.getOptimizationLevel();
+        cx.setOptimizationLevel(optimizationLevel);
+        try {
+            Script script = null;
+            if (codeCache != null && optimizationLevel >= 0) {
+                script = getCompiledClasses(cx, fullPath, source, codeCache);
+            }
+            if (script == null) {
+                script = cx.compileString(source, fullPath, 1, null);
+            }
+            entry = new Entry(source, optimizationLevel, script);
+        } finally {
+            cx.setOptimizationLevel(previousLevel);
+        }
+        synchronized (SCRIPTS) {
+            SCRIPTS.put(fullPath, entry);
+        }
+        return entry.script;
+    }
+
+    // Loads the classes of the script from the code cache, or compiles them and
+    // stores them there. The classes are stored as their count followed by the
+    // name and the bytes of each one, the script class first.
+    private static Script getCompiledClasses(Context cx, String fullPath, String source, CodeCache codeCache) {
+        String kind = "rhino " + cx.getImplementationVersion() + " " + cx.getOptimizationLevel();
+        byte[] code = codeCache.get(kind, fullPath, source);
+        if (code != null) {
+            try {
+                return loadClasses(cx, code);
+            } catch (IOException | ReflectiveOperationException | LinkageError | ClassCastException e) {
+                // Compiled again below and replaced
+            }
+        }
+
+        CompilerEnvirons environs = new CompilerEnvirons();
+        environs.initFromContext(cx);
+        Object[] classes = new ClassCompiler(environs).compileToClassFiles(source, fullPath, 1, CLASS_NAME);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(classes.length / 2);
+            for (int i = 0; i < classes.length; i += 2) {
+                byte[] classBytes = (byte[]) classes[i + 1];
+                out.writeUTF((String) classes[i]);
+                out.writeInt(classBytes.length);
+                out.write(classBytes);
+            }
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        code = bytes.toByteArray();
+        try {
+            Script script = loadClasses(cx, code);
+            codeCache.put(kind, fullPath, source, code);
+            return script;
+        } catch (IOException | ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static Script loadClasses(Context cx, byte[] code) throws IOException, ReflectiveOperationException {
+        GeneratedClassLoader loader = cx.createClassLoader(cx.getApplicationClassLoader());
+        Class<?> scriptClass = null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(code))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] classBytes = new byte[in.readInt()];
+                in.readFully(classBytes);
+                Class<?> defined = loader.defineClass(name, classBytes);
+                if (scriptClass == null) {
+                    scriptClass = defined;
+                }
+            }
+        }
+        if (scriptClass == null) {
+            throw new IOException("No script class");
+        }
+        loader.linkClass(scriptClass);
+        return (Script) scriptClass.getDeclaredConstructor().newInstance();
+    }
+
+    private static final class Entry {
+        private final String source;
+        private final int optimizationLevel;
+        private final Script script;
+
+        private Entry(String source, int optimizationLevel, Script script) {
+            this.source = source;
+            this.optimizationLevel = optimizationLevel;
+            this.script = script;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.script.ScriptEngine;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class CachingFolderTest {
+    @Mock
+    Folder root;
+    @Mock
+    Folder sub;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private CachingFolder folder;
+
+    @Before
+    public void before() {
+        when(root.getPath()).thenReturn("/");
+        when(root.getFile("foo.js")).thenReturn("exports.foo = 'foo';");
+        when(root.getFolder("sub")).thenReturn(sub);
+        when(sub.getPath()).thenReturn("/sub/");
+        when(sub.getFile("bar.js")).thenReturn("exports.bar = 'bar';");
+        folder = CachingFolder.create(root, 1024 * 1024);
+    }
+
+    @Test
+    public void rootFolderHasTheExpectedProperties() {
+        assertEquals("/", folder.getPath());
+        assertNull(folder.getParent());
+        assertSame(root, folder.getDelegate());
+    }
+
+    @Test
+    public void getFileReadsTheDelegateOnce() {
+        assertEquals("exports.foo = 'foo';", folder.getFile("foo.js"));
+        assertEquals("exports.foo = 'foo';", folder.getFile("foo.js"));
+        verify(root, times(1)).getFile("foo.js");
+        assertEquals(1, folder.getCache().getHitCount());
+    }
+
+    @Test
+    public void getFileRemembersMisses() {
+        assertNull(folder.getFile("invalid.js"));
+        assertNull(folder.getFile("invalid.js"));
+        verify(root, times(1)).getFile("invalid.js");
+    }
+
+    @Test
+    public void getFolderReturnsTheSameCachingFolder() {
+        Folder first = folder.getFolder("sub");
+        assertSame(first, folder.getFolder("sub"));
+        assertSame(folder, first.getParent());
+        assertEquals("/sub/", first.getPath());
+        assertEquals("exports.bar = 'bar';", first.getFile("bar.js"));
+        verify(root, times(1)).getFolder("sub");
+    }
+
+    @Test
+    public void getFolderRemembersMisses() {
+        assertNull(folder.getFolder("invalid"));
+        assertNull(folder.getFolder("invalid"));
+        verify(root, times(1)).getFolder("invalid");
+    }
+
+    @Test
+    public void leastRecentlyUsedSourcesAreEvictedByWeight() {
+        when(root.getFile("large1.js")).thenReturn(new String(new char[400]));
+        when(root.getFile("large2.js")).thenReturn(new String(new char[400]));
+        CachingFolder small = CachingFolder.create(root, 1200);
+
+        small.getFile("large1.js");
+        small.getFile("large2.js");
+        assertEquals(1, small.getCache().getEvictionCount());
+        assertTrue(small.getCache().getWeight() <= 1200);
+
+        small.getFile("large1.js");
+        verify(root, times(2)).getFile("large1.js");
+        small.getFile("large1.js");
+        verify(root, times(2)).getFile("large1.js");
+    }
+
+    @Test
+    public void aCacheCanBeSharedByDifferentRoots() {
+        when(sub.getPath()).thenReturn("/");
+        when(sub.getFile("foo.js")).thenReturn("exports.foo = 'other';");
+        SourceCache cache = new SourceCache(1024 * 1024);
+        CachingFolder first = CachingFolder.create(root, cache, false);
+        CachingFolder second = CachingFolder.create(sub, cache, false);
+
+        assertEquals("exports.foo = 'foo';", first.getFile("foo.js"));
+        assertEquals("exports.foo = 'other';", second.getFile("foo.js"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void foldersOverTheSameDirectoryShareTheirSources() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+        SourceCache cache = new SourceCache(1024 * 1024);
+        CachingFolder first = CachingFolder.create(FilesystemFolder.create(file, "UTF-8"), cache, false);
+        CachingFolder second = CachingFolder.create(FilesystemFolder.create(new File(file, "../test1"), "UTF-8"),
+                cache, false);
+        CachingFolder sub = CachingFolder.create(FilesystemFolder.create(new File(file, "subdir"), "UTF-8"), cache,
+                false);
+
+        assertTrue(first.getFolder("subdir").getFile("bar.js").contains("bar"));
+        assertTrue(second.getFolder("subdir").getFile("bar.js").contains("bar"));
+        assertTrue(sub.getFile("bar.js").contains("bar"));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void filesystemSourcesAreReadAgainWhenTheyChange() throws Throwable {
+        File file = tmp.newFile("foo.js");
+        write(file, "exports.foo = 'foo';");
+        CachingFolder folder = CachingFolder.create(FilesystemFolder.create(tmp.getRoot(), "UTF-8"),
+                new SourceCache(1024 * 1024), true);
+
+        assertEquals("exports.foo = 'foo';", folder.getFile("foo.js"));
+        assertNull(folder.getFile("bar.js"));
+
+        write(file, "exports.foo = 'changed';");
+        file.setLastModified(file.lastModified() + 2000);
+        write(new File(tmp.getRoot(), "bar.js"), "exports.bar = 'bar';");
+        tmp.getRoot().setLastModified(tmp.getRoot().lastModified() + 2000);
+
+        assertEquals("exports.foo = 'changed';", folder.getFile("foo.js"));
+        assertEquals("exports.bar = 'bar';", folder.getFile("bar.js"));
+    }
+
+    @Test
+    public void cachingFolderWorksWhenUsedForReal() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+        CachingFolder folder = CachingFolder.create(FilesystemFolder.create(file, "UTF-8"), 1024 * 1024);
+        for (int i = 0; i < 2; i++) {
+            ScriptEngine engine = EngineFactory.createEngine();
+            Require.enable(engine, folder);
+            assertEquals(engine.eval("JSON.stringify('spam')"),
+                    engine.eval("JSON.stringify(require('./foo').bar.spam.spam)"));
+        }
+        assertTrue(folder.getCache().getHitCount() > 0);
+    }
+
+    private static void write(File file, String content) throws Throwable {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.alanger.commonjs.nashorn.NashornEngines;
+
+public class CodeCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void itReturnsTheCodeCompiledFromTheSameSource() throws Throwable {
+        CodeCache cache = new CodeCache(tmp.getRoot().toPath());
+        cache.put("test", "/a.js", "exports.a = 1;", new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("test", "/a.js", "exports.a = 1;"));
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                new CodeCache(tmp.getRoot().toPath()).get("test", "/a.js", "exports.a = 1;"));
+        assertNull(cache.get("test", "/b.js", "exports.a = 1;"));
+        assertNull(cache.get("other", "/a.js", "exports.a = 1;"));
+    }
+
+    @Test
+    public void aChangedSourceInvalidatesTheCode() throws Throwable {
+        CodeCache cache = new CodeCache(tmp.getRoot().toPath());
+        cache.put("test", "/a.js", "exports.a = 1;", new byte[] { 1 });
+        assertNull(cache.get("test", "/a.js", "exports.a = 2;"));
+        cache.put("test", "/a.js", "exports.a = 2;", new byte[] { 2 });
+        assertArrayEquals(new byte[] { 2 }, cache.get("test", "/a.js", "exports.a = 2;"));
+        assertNull(cache.get("test", "/a.js", "exports.a = 1;"));
+        assertEquals(1, countFiles(tmp.getRoot().toPath()));
+    }
+
+    @Test
+    public void corruptedEntriesAreIgnored() throws Throwable {
+        CodeCache cache = new CodeCache(tmp.getRoot().toPath());
+        cache.put("test", "/a.js", "exports.a = 1;", new byte[] { 1 });
+        try (Stream<Path> files = Files.list(tmp.getRoot().toPath())) {
+            Files.write(files.findFirst().get(), "garbage".getBytes(StandardCharsets.UTF_8));
+        }
+        assertNull(cache.get("test", "/a.js", "exports.a = 1;"));
+    }
+
+    @Test
+    public void nashornKeepsCompiledModulesInTheDirectory() throws Throwable {
+        Assume.assumeTrue(Require.NASHORN.equals(System.getProperty(EngineFactory.ENGINE_NAME_KEY)));
+        CodeCache codeCache = new CodeCache(tmp.newFolder("cache").toPath());
+        File modules = tmp.newFolder("modules");
+        // Nashorn does not store sources shorter than 1000 characters
+        StringBuilder source = new StringBuilder("exports.a = 42;\n");
+        for (int i = 0; i < 100; i++) {
+            source.append("exports.f").append(i).append(" = function() { return ").append(i).append("; };\n");
+        }
+        Files.write(new File(modules, "a.js").toPath(), source.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 2; i++) {
+            ScriptEngine engine = NashornEngines.createScriptEngine(codeCache);
+            Require.enable(engine, FilesystemFolder.create(modules, "UTF-8"));
+            assertEquals(42, ((Number) engine.eval("require('./a').a")).intValue());
+        }
+        assertTrue(countFiles(codeCache.getDirectory()) > 0);
+    }
+
+    @Test
+    public void rhinoKeepsCompiledModulesInTheDirectory() throws Throwable {
+        Assume.assumeTrue(Require.RHINO.equals(System.getProperty(EngineFactory.ENGINE_NAME_KEY)));
+        CodeCache codeCache = new CodeCache(tmp.newFolder("cache").toPath());
+        File modules = tmp.newFolder("modules");
+        Files.write(new File(modules, "a.js").toPath(), "exports.a = 42;".getBytes(StandardCharsets.UTF_8));
+
+        String level = System.getProperty("jsr223.rhino.optimization.level");
+        System.setProperty("jsr223.rhino.optimization.level", "9");
+        try {
+            ModuleCache cache = new ModuleCache();
+            cache.setCodeCache(codeCache);
+            ScriptEngine engine = EngineFactory.createEngine();
+            Require.enable(engine, FilesystemFolder.create(modules, "UTF-8"),
+                    engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+            assertEquals(42, ((Number) engine.eval("require('./a').a")).intValue());
+            assertEquals(1, countFiles(codeCache.getDirectory()));
+        } finally {
+            if (level != null) {
+                System.setProperty("jsr223.rhino.optimization.level", level);
+            } else {
+                System.clearProperty("jsr223.rhino.optimization.level");
+            }
+        }
+    }
+
+    private static long countFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class CompiledScriptCacheTest {
+    @Test
+    public void aSourceIsCompiledOncePerEngine() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+        Assume.assumeTrue(engine instanceof Compilable);
+
+        // Held like main modules hold it, the engine only references it weakly
+        CompiledScriptCache cache = CompiledScriptCache.of(engine);
+        CompiledScript first = cache.get((Compilable) engine, "/a.js", "(1 + 1)");
+        CompiledScript second = CompiledScriptCache.of(engine).get((Compilable) engine, "/a.js", "(1 + 1)");
+        assertSame(first, second);
+        assertEquals(2, ((Number) second.eval()).intValue());
+    }
+
+    @Test
+    public void aChangedSourceIsCompiledAgain() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+        Assume.assumeTrue(engine instanceof Compilable);
+
+        CompiledScriptCache cache = CompiledScriptCache.of(engine);
+        CompiledScript first = cache.get((Compilable) engine, "/a.js", "(1 + 1)");
+        CompiledScript second = cache.get((Compilable) engine, "/a.js", "(2 + 2)");
+        assertNotSame(first, second);
+        assertEquals(4, ((Number) second.eval()).intValue());
+    }
+
+    @Test
+    public void enginesDoNotShareScripts() throws Throwable {
+        ScriptEngine engine1 = EngineFactory.createEngine();
+        ScriptEngine engine2 = EngineFactory.createEngine();
+        Assume.assumeTrue(engine1 instanceof Compilable);
+
+        assertNotSame(CompiledScriptCache.of(engine1).get((Compilable) engine1, "/a.js", "(1 + 1)"),
+                CompiledScriptCache.of(engine2).get((Compilable) engine2, "/a.js", "(1 + 1)"));
+    }
+}
@@ -6,10 +6,15 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import javax.script.ScriptEngine;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class FilesystemFolderTest {
     private File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
@@ -18,6 +23,9 @@ public class FilesystemFolderTest {
     private File subfile = new File(file, "subdir");
     private File subsubfile = new File(subfile, "subsubdir");
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     private String rootPath = file.getAbsolutePath().substring(0, file.getAbsolutePath().indexOf(File.separator));
 
     @Test
@@ -37,6 +45,42 @@ public class FilesystemFolderTest {
         assertNull(root.getFile("invalid"));
     }
 
+    @Test
+    public void getFileReturnsNullForFolders() {
+        assertNull(root.getFile("subdir"));
+    }
+
+    @Test
+    public void getFileReadsTheSameContentAsInputStreamToString() throws Throwable {
+        File foo = new File(file, "foo.js");
+        try (FileInputStream stream = new FileInputStream(foo)) {
+            assertEquals(AbstractFolder.inputStreamToString(stream, "UTF-8"), root.getFile("foo.js"));
+        }
+    }
+
+    @Test
+    public void getFileReadsLargeFiles() throws Throwable {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1024 * 1024) {
+            sb.append("exports.\u0444\u043e\u043e = '\u0431\u0430\u0440';\n");
+        }
+        File large = tmp.newFile("large.js");
+        Files.write(large.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        FilesystemFolder folder = FilesystemFolder.create(tmp.getRoot(), "UTF-8");
+        assertEquals(sb.toString(), folder.getFile("large.js"));
+        assertEquals(sb.toString(), AbstractFolder.fileToString(large, "UTF-8"));
+    }
+
+    @Test
+    public void getFileDecodesOtherEncodings() throws Throwable {
+        File utf16 = tmp.newFile("utf16.js");
+        Files.write(utf16.toPath(), "exports.foo = '\u00e9t\u00e9';".getBytes(StandardCharsets.UTF_16));
+
+        FilesystemFolder folder = FilesystemFolder.create(tmp.getRoot(), "UTF-16");
+        assertEquals("exports.foo = '\u00e9t\u00e9';", folder.getFile("utf16.js"));
+    }
+
     @Test
     public void getFolderReturnsAnObjectWithTheExpectedProperties() {
         Folder sub = root.getFolder("subdir");
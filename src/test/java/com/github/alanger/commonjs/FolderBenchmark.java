@@ -0,0 +1,100 @@
+package com.github.alanger.commonjs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Reads every file of the test3 tree (fbjs, promise, core-js...).
+// Run: mvn test-compile && java -cp "target/classes:target/test-classes:$(mvn -q
+// dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+// com.github.alanger.commonjs.FolderBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FolderBenchmark {
+
+    private static final String ROOT = "src/test/resources/com/github/alanger/commonjs_modules/test3";
+
+    private List<File> files;
+    private FilesystemFolder folder;
+    private List<String> names;
+
+    @Setup
+    public void setup() throws IOException {
+        File root = new File(ROOT).getAbsoluteFile();
+        try (Stream<Path> walk = Files.walk(root.toPath())) {
+            files = walk.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+        }
+        folder = FilesystemFolder.create(root, "UTF-8");
+        names = files.stream().map(f -> root.toPath().relativize(f.toPath()).toString()).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void legacyCharByChar(Blackhole bh) throws IOException {
+        for (File file : files) {
+            try (FileInputStream stream = new FileInputStream(file)) {
+                bh.consume(legacyInputStreamToString(stream, "UTF-8"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void inputStreamToString(Blackhole bh) throws IOException {
+        for (File file : files) {
+            try (FileInputStream stream = new FileInputStream(file)) {
+                bh.consume(AbstractFolder.inputStreamToString(stream, "UTF-8"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void filesystemFolderGetFile(Blackhole bh) {
+        for (String name : names) {
+            bh.consume(folder.getFile(name));
+        }
+    }
+
+    // The implementation of AbstractFolder.inputStreamToString before it was
+    // rewritten, kept here as the baseline
+    private static String legacyInputStreamToString(InputStream input, String encoding) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (InputStreamReader reader = new InputStreamReader(input, Charset.forName(encoding));
+                BufferedReader br = new BufferedReader(reader)) {
+            for (int c = br.read(); c != -1; c = br.read())
+                sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FolderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
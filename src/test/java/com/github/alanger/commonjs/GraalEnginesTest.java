@@ -0,0 +1,67 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.junit.Test;
+
+import com.github.alanger.commonjs.graalvm.GraalEngines;
+import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+
+public class GraalEnginesTest {
+    @Test
+    public void scriptEnginesShareThePolyglotEngineAndLoadModules() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+        FilesystemFolder folder = FilesystemFolder.create(file, "UTF-8");
+
+        GraalJSScriptEngine first = GraalEngines.createScriptEngine(builder());
+        GraalJSScriptEngine second = GraalEngines.createScriptEngine(builder());
+        assertSame(first.getPolyglotEngine(), second.getPolyglotEngine());
+        assertSame(GraalEngines.getSharedEngine(), first.getPolyglotEngine());
+
+        for (GraalJSScriptEngine engine : new GraalJSScriptEngine[] { first, second }) {
+            Require.enable(engine, folder);
+            assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
+        }
+    }
+
+    @Test
+    public void modulesArePreloadedOnTheSharedEngine() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+        GraalJSScriptEngine engine = GraalEngines.createScriptEngine(builder());
+        AbstractModule require = Require.enable(engine, FilesystemFolder.create(file, "UTF-8"));
+        require.preload(Arrays.asList("./foo"));
+        assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
+    }
+
+    @Test
+    public void modulesArePreloadedOnTheGivenExecutor() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+        GraalJSScriptEngine engine = GraalEngines.createScriptEngine(builder());
+        AtomicInteger tasks = new AtomicInteger();
+        Executor executor = task -> {
+            tasks.incrementAndGet();
+            task.run();
+        };
+
+        for (String module : new String[] { "./foo", "./subdir/bar" }) {
+            AbstractModule require = Require.enable(engine, FilesystemFolder.create(file, "UTF-8"));
+            require.preload(Arrays.asList(module), executor);
+        }
+        assertTrue(tasks.get() >= 2);
+        assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
+    }
+
+    private static Context.Builder builder() {
+        return Context.newBuilder("js").allowHostAccess(HostAccess.ALL).allowHostClassLookup(s -> true)
+                .allowExperimentalOptions(true).option("js.nashorn-compat", "true");
+    }
+}
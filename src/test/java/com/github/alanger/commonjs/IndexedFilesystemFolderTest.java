@@ -0,0 +1,146 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedFilesystemFolderTest {
+    private File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test1");
+    private IndexedFilesystemFolder root = IndexedFilesystemFolder.create(file, "UTF-8");
+
+    private File subfile = new File(file, "subdir");
+    private File subsubfile = new File(subfile, "subsubdir");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String rootPath = file.getAbsolutePath().substring(0, file.getAbsolutePath().indexOf(File.separator));
+
+    @Test
+    public void rootFolderHasTheExpectedProperties() {
+        assertTrue(root.getPath().startsWith(rootPath));
+        assertTrue(root.getPath().endsWith(file.getPath() + File.separator));
+        assertNull(root.getParent());
+    }
+
+    @Test
+    public void getFileReturnsTheContentOfTheFileWhenItExists() {
+        assertTrue(root.getFile("foo.js").contains("foo"));
+    }
+
+    @Test
+    public void getFileReturnsNullWhenFileDoesNotExists() {
+        assertNull(root.getFile("invalid"));
+    }
+
+    @Test
+    public void getFileReturnsNullForFolders() {
+        assertNull(root.getFile("subdir"));
+    }
+
+    @Test
+    public void getFolderReturnsAnObjectWithTheExpectedProperties() {
+        Folder sub = root.getFolder("subdir");
+        assertTrue(sub.getPath().startsWith(rootPath));
+        assertTrue(sub.getPath().endsWith(subfile.getPath() + File.separator));
+        assertSame(root, sub.getParent());
+        Folder subsub = sub.getFolder("subsubdir");
+        assertTrue(subsub.getPath().startsWith(rootPath));
+        assertTrue(subsub.getPath().endsWith(subsubfile.getPath() + File.separator));
+        assertSame(sub, subsub.getParent());
+    }
+
+    @Test
+    public void getFolderReturnsTheSameObjectEachTime() {
+        assertSame(root.getFolder("subdir"), root.getFolder("subdir"));
+        assertSame(root.getFolder("subdir").getFolder("subsubdir"), root.getFolder("subdir/subsubdir"));
+    }
+
+    @Test
+    public void getFolderReturnsNullWhenFolderDoesNotExist() {
+        assertNull(root.getFolder("invalid"));
+        assertNull(root.getFolder("foo.js"));
+    }
+
+    @Test
+    public void getFileCanBeUsedOnSubFolderIfFileExist() {
+        assertTrue(root.getFolder("subdir").getFile("bar.js").contains("bar"));
+    }
+
+    @Test
+    public void newFilesAreNotSeenWithoutCheckModified() throws Throwable {
+        IndexedFilesystemFolder folder = IndexedFilesystemFolder.create(tmp.getRoot(), "UTF-8");
+        assertNull(folder.getFile("foo.js"));
+
+        write(new File(tmp.getRoot(), "foo.js"), "exports.foo = 'foo';");
+        assertNull(folder.getFile("foo.js"));
+
+        folder.invalidate();
+        assertEquals("exports.foo = 'foo';", folder.getFile("foo.js"));
+    }
+
+    @Test
+    public void newFilesAreSeenWithCheckModified() throws Throwable {
+        IndexedFilesystemFolder folder = IndexedFilesystemFolder.create(tmp.getRoot(), "UTF-8", true);
+        assertNull(folder.getFile("foo.js"));
+        assertNull(folder.getFolder("lib"));
+
+        write(new File(tmp.getRoot(), "foo.js"), "exports.foo = 'foo';");
+        new File(tmp.getRoot(), "lib").mkdir();
+        // The mtime resolution of some filesystems is one second
+        tmp.getRoot().setLastModified(tmp.getRoot().lastModified() + 2000);
+
+        assertEquals("exports.foo = 'foo';", folder.getFile("foo.js"));
+        assertSame(folder, folder.getFolder("lib").getParent());
+    }
+
+    @Test
+    public void aModuleAddedAfterAMissIsFoundWhenModifiedFoldersAreChecked() throws Throwable {
+        IndexedFilesystemFolder folder = IndexedFilesystemFolder.create(tmp.getRoot(), "UTF-8", true);
+        ScriptEngine engine = EngineFactory.createEngine();
+        Require.enable(engine, folder);
+        try {
+            engine.eval("require('./added')");
+            fail("should throw exception");
+        } catch (ScriptException expected) {
+        }
+
+        Files.write(new File(tmp.getRoot(), "added.js").toPath(),
+                "exports.added = true;".getBytes(StandardCharsets.UTF_8));
+        tmp.getRoot().setLastModified(tmp.getRoot().lastModified() + 2000);
+        assertEquals(true, engine.eval("require('./added').added"));
+    }
+
+    @Test
+    public void indexedFilesystemFolderWorksWhenUsedForReal() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+        Require.enable(engine, root);
+        assertEquals(engine.eval("JSON.stringify('spam')"),
+                engine.eval("JSON.stringify(require('./foo').bar.spam.spam)"));
+    }
+
+    @Test
+    public void indexedFilesystemFolderCanLoadFromNodeModules() throws Throwable {
+        File file = new File("src/test/resources/com/github/alanger/commonjs_modules/test3");
+        ScriptEngine engine = EngineFactory.createEngine();
+        Require.enable(engine, IndexedFilesystemFolder.create(file, "UTF-8"));
+        engine.eval("require('fbjs/lib/invariant')");
+    }
+
+    private static void write(File file, String content) throws Throwable {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
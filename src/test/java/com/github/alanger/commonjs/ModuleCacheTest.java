@@ -0,0 +1,308 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ModuleCacheTest {
+    private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadCachesTheLoadedModule() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        AbstractModule module = mock(AbstractModule.class);
+        assertSame(module, cache.load("/a.js", () -> module));
+        assertSame(module, cache.load("/a.js", () -> {
+            throw new AssertionError("loaded twice");
+        }));
+        assertSame(module, cache.get("/a.js"));
+    }
+
+    @Test
+    public void loadDoesNotCacheMissingModules() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        assertNull(cache.load("/a.js", () -> null));
+        assertNull(cache.get("/a.js"));
+    }
+
+    @Test
+    public void concurrentLoadsOfTheSameModuleAreDoneOnce() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        AbstractModule module = mock(AbstractModule.class);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+
+        List<Future<AbstractModule>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> cache.load("/a.js", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                pause(200);
+                return module;
+            })));
+        }
+
+        started.await();
+        for (Future<AbstractModule> result : results) {
+            assertSame(module, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void aCacheThatIsNotConcurrentFailsWhenAnotherThreadLoadsTheModule() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        AbstractModule module = mock(AbstractModule.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch failed = new CountDownLatch(1);
+
+        Future<AbstractModule> first = executor.submit(() -> cache.load("/a.js", () -> {
+            started.countDown();
+            while (failed.getCount() > 0) {
+                pause(10);
+            }
+            return module;
+        }));
+        started.await();
+        try {
+            cache.load("/a.js", () -> module);
+            fail("should throw exception");
+        } catch (IllegalStateException expected) {
+        } finally {
+            failed.countDown();
+        }
+        assertSame(module, first.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waitingThreadsLoadTheModuleWhenTheFirstLoadFails() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        AbstractModule module = mock(AbstractModule.class);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Future<AbstractModule> failing = executor.submit(() -> cache.load("/a.js", () -> {
+            started.countDown();
+            pause(200);
+            throw new ScriptException("failed");
+        }));
+        started.await();
+        Future<AbstractModule> waiting = executor.submit(() -> cache.load("/a.js", () -> module));
+
+        assertSame(module, waiting.get(10, TimeUnit.SECONDS));
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (Exception expected) {
+        }
+    }
+
+    @Test
+    public void threadsLoadingEachOtherModulesDoNotDeadlock() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        AbstractModule a = mock(AbstractModule.class);
+        AbstractModule b = mock(AbstractModule.class);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+
+        Future<AbstractModule> first = executor.submit(() -> cache.load("/a.js", () -> {
+            await(barrier);
+            cache.load("/b.js", () -> b);
+            return a;
+        }));
+        Future<AbstractModule> second = executor.submit(() -> cache.load("/b.js", () -> {
+            await(barrier);
+            cache.load("/a.js", () -> a);
+            return b;
+        }));
+
+        assertSame(a, first.get(10, TimeUnit.SECONDS));
+        assertSame(b, second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void aModuleRequiredWhileItLoadsIsReturnedAsItIs() throws Throwable {
+        for (ModuleCache cache : new ModuleCache[] { new ModuleCache(), new ModuleCache(true) }) {
+            AbstractModule a = mock(AbstractModule.class);
+            assertSame(a, cache.load("/a.js", () -> {
+                cache.setLoading("/a.js", a);
+                assertSame(a, cache.load("/a.js", () -> {
+                    throw new AssertionError("loaded twice");
+                }));
+                return a;
+            }));
+            assertSame(a, cache.get("/a.js"));
+        }
+    }
+
+    @Test
+    public void threadsLoadingEachOtherModulesGetThemAsTheyAre() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        AbstractModule a = mock(AbstractModule.class);
+        AbstractModule b = mock(AbstractModule.class);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        AtomicInteger loads = new AtomicInteger();
+
+        Future<AbstractModule> first = executor.submit(() -> cache.load("/a.js", () -> {
+            loads.incrementAndGet();
+            cache.setLoading("/a.js", a);
+            await(barrier);
+            assertSame(b, cache.load("/b.js", () -> b));
+            return a;
+        }));
+        Future<AbstractModule> second = executor.submit(() -> cache.load("/b.js", () -> {
+            loads.incrementAndGet();
+            cache.setLoading("/b.js", b);
+            await(barrier);
+            assertSame(a, cache.load("/a.js", () -> a));
+            return b;
+        }));
+
+        assertSame(a, first.get(10, TimeUnit.SECONDS));
+        assertSame(b, second.get(10, TimeUnit.SECONDS));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedModulesAreEvictedByCount() throws Throwable {
+        ModuleCache cache = new ModuleCache(false, 2, 0, ModuleCache.EvictionPolicy.LRU);
+        AbstractModule a = module(10);
+        AbstractModule b = module(10);
+        cache.put("/a.js", a);
+        pause(1);
+        cache.put("/b.js", b);
+        pause(1);
+        cache.get("/a.js");
+        pause(1);
+        cache.put("/c.js", module(10));
+
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("/a.js"));
+        assertNull(cache.get("/b.js"));
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void modulesAreEvictedByWeight() throws Throwable {
+        ModuleCache cache = new ModuleCache(true, 0, 250, ModuleCache.EvictionPolicy.LRU);
+        cache.put("/a.js", module(100));
+        pause(1);
+        cache.put("/b.js", module(100));
+        pause(1);
+        cache.put("/c.js", module(100));
+
+        assertEquals(2, cache.size());
+        assertEquals(200, cache.getWeight());
+        assertNull(cache.get("/a.js"));
+    }
+
+    @Test
+    public void aModuleCachedUnderSeveralPathsIsCountedAndEvictedOnce() throws Throwable {
+        ModuleCache cache = new ModuleCache(false, 1, 0, ModuleCache.EvictionPolicy.LRU);
+        AbstractModule a = module(100);
+        cache.put("/a", a);
+        cache.put("/a.js", a);
+        assertEquals(1, cache.size());
+        assertEquals(100, cache.getWeight());
+
+        pause(1);
+        cache.put("/b.js", module(100));
+        assertEquals(1, cache.size());
+        assertNull(cache.get("/a"));
+        assertNull(cache.get("/a.js"));
+    }
+
+    @Test
+    public void tinyLfuKeepsFrequentlyUsedModulesWhenOthersAreScanned() throws Throwable {
+        for (ModuleCache.EvictionPolicy policy : ModuleCache.EvictionPolicy.values()) {
+            ModuleCache cache = new ModuleCache(false, 2, 0, policy);
+            AbstractModule hot = module(10);
+            cache.load("/hot.js", () -> hot);
+            for (int i = 0; i < 10; i++) {
+                cache.get("/hot.js");
+            }
+            for (int i = 0; i < 10; i++) {
+                pause(1);
+                AbstractModule cold = module(10);
+                cache.load("/cold" + i + ".js", () -> cold);
+            }
+
+            if (policy == ModuleCache.EvictionPolicy.TINY_LFU) {
+                assertSame(hot, cache.get("/hot.js"));
+            } else {
+                assertNull(cache.get("/hot.js"));
+            }
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void statsCountHitsMissesAndLoads() throws Throwable {
+        ModuleCache cache = new ModuleCache(true);
+        AbstractModule a = module(10);
+        cache.load("/a.js", () -> a);
+        cache.load("/a.js", () -> a);
+        cache.load("/b.js", () -> null);
+
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertTrue(stats.getTotalLoadTime() > 0);
+    }
+
+    @Test
+    public void clearRemovesAllModules() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        cache.put("/a.js", module(10));
+        cache.clear();
+        assertNull(cache.get("/a.js"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    private static AbstractModule module(int sourceLength) {
+        AbstractModule module = mock(AbstractModule.class);
+        when(module.getSourceLength()).thenReturn(sourceLength);
+        return module;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
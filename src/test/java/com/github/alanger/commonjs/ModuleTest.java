@@ -7,10 +7,22 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.Bindings;
 import javax.script.ScriptContext;
@@ -22,9 +34,12 @@ import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import com.github.alanger.commonjs.rhino.RhinoModule;
+
 @RunWith(MockitoJUnitRunner.class)
 public class ModuleTest {
     @Mock
@@ -119,6 +134,44 @@ public class ModuleTest {
         assertEquals(stringify("file1"), stringify(engine.eval("require('./file1')", bindings2), "file1"));
     }
 
+    @Test
+    public void modulesSeeTheGlobalOfTheBindingsRequireIsEnabledIn() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+        // Rhino and Graal.js modules run in the global of the engine
+        Assume.assumeTrue(engine.getFactory().getEngineName().equals(Require.NASHORN_NAME));
+
+        Bindings bindings1 = engine.createBindings();
+        Bindings bindings2 = engine.createBindings();
+        when(root.getFile("file1.js")).thenReturn("exports.greeting = greeting;");
+        Require.enable(engine, root, bindings1);
+        Require.enable(engine, root, bindings2);
+        engine.eval("var greeting = 'one';", bindings1);
+        engine.eval("var greeting = 'two';", bindings2);
+
+        assertEquals("one", engine.eval("require('./file1').greeting", bindings1));
+        assertEquals("two", engine.eval("require('./file1').greeting", bindings2));
+    }
+
+    @Test
+    public void itCanShareAModuleCacheBetweenBindingsOnTheSameEngine() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+
+        // Graal.js return error: cannot be passed from one context to another.
+        if (engine.getFactory().getEngineName().equals(Require.GRAALJS_NAME))
+            return;
+
+        ModuleCache cache = new ModuleCache(true);
+        Bindings bindings1 = new SimpleBindings();
+        Bindings bindings2 = new SimpleBindings();
+        Require.enable(engine, root, bindings1, cache);
+        Require.enable(engine, root, bindings2, cache);
+
+        Object first = engine.eval("require('./file1')", bindings1);
+        Object second = engine.eval("require('./file1')", bindings2);
+        assertTrue(first.equals(second));
+        verify(root, times(1)).getFile("file1.js");
+    }
+
     @Test
     public void itCanLoadSimpleJsonModules() throws Throwable {
         assertEquals(stringify("file2"), stringify(require.require("./file2.json"), "file2"));
@@ -297,6 +350,46 @@ public class ModuleTest {
         require.require("../../file1.js");
     }
 
+    @Test
+    public void itDoesNotWalkNodeModulesAgainForAResolvedModule() throws Throwable {
+        Object first = require.require("nmfile1");
+        Object second = require.require("nmfile1");
+        assertTrue(first.equals(second));
+        verify(root, times(1)).getFolder("node_modules");
+        verify(rootnm, times(1)).getFile("nmfile1");
+    }
+
+    @Test
+    public void itRemembersModulesThatWereNotFoundUntilTheCacheIsCleared() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        AbstractModule require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+        for (int i = 0; i < 3; i++) {
+            try {
+                require.require("invalid");
+                fail();
+            } catch (ModuleException expected) {
+            }
+        }
+        verify(rootnm, times(1)).getFile("invalid");
+
+        cache.clear();
+        when(rootnm.getFile("invalid.js")).thenReturn("exports.valid = true;");
+        assertEquals("true", stringify(require.require("invalid"), "valid"));
+    }
+
+    @Test
+    public void itLoadsAModuleAgainOnceTheCacheIsCleared() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        AbstractModule require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+        require.require("./file1");
+        require.require("./file1");
+        verify(root, times(1)).getFile("file1.js");
+
+        cache.clear();
+        require.require("./file1");
+        verify(root, times(2)).getFile("file1.js");
+    }
+
     @Test
     public void theExceptionThrownForAnUnknownFileCanBeCaughtInJavaScriptAndHasTheProperCode() throws Throwable {
         String code = (String) engine
@@ -321,6 +414,57 @@ public class ModuleTest {
         assertEquals(module, main);
     }
 
+    @Test
+    public void theRequireFunctionHoldsPropertiesLikeAnyObject() throws Throwable {
+        engine.eval("require.foo = 'bar'; require[0] = 'a'; require[1] = 'b'; require[100] = 'c'; delete require[0];");
+        assertEquals("bar", engine.eval("require.foo"));
+        assertEquals("b", engine.eval("require[1]"));
+        assertEquals("c", engine.eval("require[100]"));
+        assertEquals(true, engine.eval("require[0] === undefined && require[2] === undefined"));
+        assertEquals(true, engine.eval("require.missing === undefined"));
+    }
+
+    @Test
+    public void theKeysOfTheRequireFunctionAreItsProperties() throws Throwable {
+        // The require function is a host object in Graal.js, its keys are its members
+        Assume.assumeFalse(engine.getClass().getName().startsWith("com.oracle.truffle.js"));
+        engine.eval("require.foo = 'bar'; require[0] = 'a'; require[1] = 'b'; require[100] = 'c'; delete require[0];");
+        assertEquals("1,100,foo",
+                engine.eval("Object.keys(require).filter(function(k) { return k !== 'main'; }).sort().join()"));
+    }
+
+    @Test
+    public void threadsSharingARhinoModuleCanSetItsIndexedPropertiesAtOnce() throws Throwable {
+        Assume.assumeTrue(require instanceof RhinoModule);
+        RhinoModule module = (RhinoModule) require;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int first = t * 1000;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < first + 1000; i++) {
+                        module.put(i, module, i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int indexes = 0;
+        for (Object id : module.getIds()) {
+            if (id instanceof Integer) {
+                assertEquals(id, module.get((Integer) id, module));
+                indexes++;
+            }
+        }
+        assertEquals(4000, indexes);
+    }
+
     @Test
     @SuppressWarnings("rawtypes")
     public void topLevelModulesExposeTheExpectedFields() throws Throwable {
@@ -466,6 +610,15 @@ public class ModuleTest {
         assertEquals(true, engine.eval("require('./file1').foo();"));
     }
 
+    @Test
+    public void engineScopeVariablesAreInheritedByModuleObjects() throws Throwable {
+        engine.put("bar", "bar");
+        when(root.getFile("file1.js"))
+                .thenReturn("exports.bar = module.bar; exports.own = module.hasOwnProperty('bar');");
+        assertEquals("bar", engine.eval("require('./file1').bar"));
+        assertEquals(false, engine.eval("require('./file1').own"));
+    }
+
     @Test
     public void itCanLoadModulesFromModulesFromModules() throws Throwable {
         when(root.getFile("file1.js")).thenReturn("exports.sub = require('./file2.js');");
@@ -546,6 +699,220 @@ public class ModuleTest {
         engine.eval("require('./main.js')");
     }
 
+    @Test
+    public void aCircularRequireReturnsThePartialExports() throws Throwable {
+        when(root.getFile("a.js")).thenReturn("exports.early = 1; exports.b = require('./b'); exports.late = 2;");
+        when(root.getFile("b.js")).thenReturn("var a = require('./a'); exports.early = a.early; exports.late = a.late;");
+        assertEquals(1, ((Number) engine.eval("require('./a').b.early")).intValue());
+        assertEquals(true, engine.eval("require('./a').b.late === undefined"));
+        assertEquals(true, engine.eval("require('./a').b === require('./b')"));
+        assertEquals(2, ((Number) engine.eval("require('./a').late")).intValue());
+    }
+
+    @Test
+    public void aCircularRequireReturnsTheExportsTheModuleReplacedBeforeTheCycle() throws Throwable {
+        when(root.getFile("a.js")).thenReturn(
+                "module.exports = { early: 1 }; module.exports.b = require('./b'); module.exports.late = 2;");
+        when(root.getFile("b.js")).thenReturn("exports.a = require('./a');");
+        assertEquals(1, ((Number) engine.eval("require('./a').b.a.early")).intValue());
+        assertEquals(true, engine.eval("require('./a').b.a === require('./a')"));
+        assertEquals(2, ((Number) engine.eval("require('./a').b.a.late")).intValue());
+    }
+
+    @Test
+    public void requireAsyncReadsOnTheLoaderAndCompilesOnTheOwner() throws Throwable {
+        ExecutorService loader = Executors.newSingleThreadExecutor(r -> new Thread(r, "loader"));
+        ExecutorService owner = Executors.newSingleThreadExecutor(r -> new Thread(r, "owner"));
+        try {
+            StringBuilder readBy = new StringBuilder();
+            when(root.getFile("file1.js")).thenAnswer(invocation -> {
+                readBy.append(Thread.currentThread().getName());
+                return "exports.file1 = 'file1'; exports.thread = java.lang.Thread.currentThread().getName();";
+            });
+
+            Object exports = require.requireAsync("./file1", loader, owner).get(10, TimeUnit.SECONDS);
+            assertEquals("file1", get(exports, "file1"));
+            assertEquals("owner", get(exports, "thread"));
+            assertEquals("loader", readBy.toString());
+
+            assertEquals(exports, require.require("./file1"));
+            assertEquals(exports, require.requireAsync("./file1", loader, owner).get(10, TimeUnit.SECONDS));
+            verify(root, times(1)).getFile("file1.js");
+        } finally {
+            loader.shutdownNow();
+            owner.shutdownNow();
+        }
+    }
+
+    @Test
+    public void putObjectReturnsThePreviousValueLikeMapPut() throws Throwable {
+        Object exports = require.require("./file1");
+        assertNull(require.putObject(exports, "added", "one"));
+        assertEquals("one", require.putObject(exports, "added", "two"));
+        assertEquals("two", get(exports, "added"));
+    }
+
+    @Test
+    public void aRequireCountsOneLookupInTheCacheStats() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+
+        require.require("./file1");
+        assertEquals(0, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+        require.require("./file1");
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void anEvictedModuleRunsAgainWithNewExports() throws Throwable {
+        ModuleCache cache = new ModuleCache(false, 1, 0, ModuleCache.EvictionPolicy.LRU);
+        require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+
+        Object first = require.require("./file1");
+        assertEquals(first, require.require("./file1"));
+        require.require("./file2.json");
+        Object second = require.require("./file1");
+        assertFalse(first == second);
+        assertEquals("file1", get(second, "file1"));
+        verify(root, times(2)).getFile("file1.js");
+    }
+
+    @Test
+    public void preloadedModulesAreReadOnceAndRunInOrder() throws Throwable {
+        List<String> ran = new ArrayList<>();
+        engine.put("ran", ran);
+        when(root.getFile("file1.js")).thenReturn(
+                "ran.add('file1'); exports.order = require('./sub1/sub1file1').order + ',file1';");
+        when(sub1.getFile("sub1file1.js")).thenReturn(
+                "ran.add('sub1file1'); exports.order = require('sub1nmfile1').sub1nmfile1 + ',sub1file1';");
+
+        require.preload(Arrays.asList("./file1", "./file2.json"));
+        assertTrue(ran.isEmpty());
+        assertEquals("sub1nmfile1,sub1file1,file1", engine.eval("require('./file1').order"));
+        assertEquals("file2", engine.eval("require('./file2.json').file2"));
+        verify(root, times(1)).getFile("file1.js");
+        verify(root, times(1)).getFile("file2.json");
+        verify(sub1, times(1)).getFile("sub1file1.js");
+        verify(sub1nm, times(1)).getFile("sub1nmfile1.js");
+        assertEquals(Arrays.asList("file1", "sub1file1"), ran);
+    }
+
+    @Test
+    public void preloadedSourcesAreNotLimitedLikePrefetchedOnes() throws Throwable {
+        ModuleCache cache = new ModuleCache();
+        require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+        // A chain of modules, each one requiring the next in a branch that never runs
+        int size = 1100;
+        when(root.getFile(ArgumentMatchers.matches("m\\d+\\.js"))).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            int next = Integer.parseInt(name.substring(1, name.length() - 3)) + 1;
+            return (next < size ? "if (false) { require('./m" + next + "'); } " : "") + "exports.ok = true;";
+        });
+
+        require.preload(Arrays.asList("./m0"));
+        assertEquals(size, cache.countPrefetched());
+        assertEquals(true, engine.eval("require('./m0').ok && require('./m" + (size - 1) + "').ok"));
+        verify(root, times(1)).getFile("m0.js");
+        verify(root, times(1)).getFile("m" + (size - 1) + ".js");
+    }
+
+    @Test
+    public void preloadThrowsForAModuleThatIsNotFound() throws Throwable {
+        try {
+            require.preload(Arrays.asList("./file1", "./notfound"));
+            fail("should throw exception");
+        } catch (ModuleException e) {
+            assertEquals("MODULE_NOT_FOUND", e.getCode());
+        }
+        assertEquals("file1", engine.eval("require('./file1').file1"));
+    }
+
+    @Test
+    public void prefetchedModulesAreReadOnceOnThePrefetchPool() throws Throwable {
+        // The common pool runs asynchronous tasks on new threads on a single processor
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ModuleCache cache = new ModuleCache();
+            cache.setPrefetchPool(pool);
+            require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+
+            StringBuilder readBy = new StringBuilder();
+            when(root.getFile("file1.js")).thenReturn("exports.sub = require('./sub1/sub1file1').sub1file1;");
+            when(sub1.getFile("sub1file1.js")).thenAnswer(invocation -> {
+                readBy.append(Thread.currentThread() instanceof ForkJoinWorkerThread);
+                return "exports.sub1file1 = require('sub1nmfile1').sub1nmfile1;";
+            });
+
+            assertEquals("sub1nmfile1", engine.eval("require('./file1').sub"));
+            assertEquals("true", readBy.toString());
+            verify(sub1, times(1)).getFile("sub1file1.js");
+            verify(sub1nm, times(1)).getFile("sub1nmfile1.js");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aRequireThatFindsItsRequestResolvedDropsItsPrefetchedSource() throws Throwable {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ModuleCache cache = new ModuleCache();
+            cache.setPrefetchPool(pool);
+            require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+            engine.eval("require('./file1')");
+
+            // file2 is read ahead with its own require of file1, which is resolved
+            when(root.getFile("file2.js")).thenReturn("exports.file1 = require('./file1').file1;");
+            when(root.getFile("file3.js")).thenReturn("exports.file1 = require('./file2').file1;");
+            assertEquals("file1", engine.eval("require('./file3').file1"));
+            assertEquals(0, cache.countPrefetched());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void prefetchingAGraphLargerThanItsLimitEnds() throws Throwable {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ModuleCache cache = new ModuleCache();
+            cache.setPrefetchPool(pool);
+            require = Require.enable(engine, root, engine.getBindings(ScriptContext.ENGINE_SCOPE), cache);
+
+            // A ring of modules, each one requiring the next in a branch that never runs
+            int size = ModuleCache.MAX_PREFETCHED + 1000;
+            AtomicInteger reads = new AtomicInteger();
+            when(root.getFile(ArgumentMatchers.matches("m\\d+\\.js"))).thenAnswer(invocation -> {
+                reads.incrementAndGet();
+                String name = invocation.getArgument(0);
+                int next = (Integer.parseInt(name.substring(1, name.length() - 3)) + 1) % size;
+                return "if (false) { require('./m" + next + "'); } exports.ok = true;";
+            });
+
+            assertEquals(true, engine.eval("require('./m0').ok"));
+            assertTrue(pool.awaitQuiescence(30, TimeUnit.SECONDS));
+            assertTrue(reads.get() <= ModuleCache.MAX_PREFETCHED + 1);
+            assertTrue(cache.countPrefetched() <= ModuleCache.MAX_PREFETCHED);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requireAsyncFailsForAnUnknownModule() throws Throwable {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            require.requireAsync("./invalid", executor, executor).get(10, TimeUnit.SECONDS);
+            fail("should throw exception");
+        } catch (ExecutionException e) {
+            assertEquals("MODULE_NOT_FOUND", ((ModuleException) e.getCause()).getCode());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     // Checks for https://github.com/coveo/nashorn-commonjs-modules/issues/15
 
     @Test
@@ -0,0 +1,62 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class PackageJsonTest {
+    @Test
+    public void itReadsTheMainField() throws Throwable {
+        assertEquals("lib/index.js", PackageJson.parse("{ \"name\": \"foo\", \"main\": \"lib/index.js\" }").getMain());
+    }
+
+    @Test
+    public void itSkipsNestedValues() throws Throwable {
+        String json = "{\n  \"scripts\": { \"test\": \"mocha\", \"main\": \"wrong.js\" },\n"
+                + "  \"files\": [ \"lib\", 1, -2.5e+3, true, false, null, [], {} ],\n  \"main\": \"./main\"\n}\n";
+        PackageJson packageJson = PackageJson.parse(json);
+        assertEquals("./main", packageJson.getMain());
+        assertNull(packageJson.getString("scripts"));
+        assertNull(packageJson.getString("files"));
+    }
+
+    @Test
+    public void itDecodesEscapes() throws Throwable {
+        assertEquals("a\"b\\c/d\u00e9\n", PackageJson.parse("{\"main\":\"a\\\"b\\\\c\\/d\\u00e9\\n\"}").getMain());
+    }
+
+    @Test
+    public void theLastDuplicateFieldWins() throws Throwable {
+        assertEquals("b.js", PackageJson.parse("{\"main\":\"a.js\",\"main\":\"b.js\"}").getMain());
+        assertNull(PackageJson.parse("{\"main\":\"a.js\",\"main\":1}").getMain());
+    }
+
+    @Test
+    public void aMainFieldThatIsNotAStringIsIgnored() throws Throwable {
+        assertNull(PackageJson.parse("{\"main\": [\"a.js\"]}").getMain());
+        assertNull(PackageJson.parse("[\"main\"]").getMain());
+        assertNull(PackageJson.parse("{}").getMain());
+    }
+
+    @Test
+    public void aByteOrderMarkIsIgnored() throws Throwable {
+        assertEquals("a.js", PackageJson.parse("\uFEFF{\"main\":\"a.js\"}").getMain());
+    }
+
+    @Test
+    public void malformedDocumentsAreRejected() {
+        String[] documents = { "", "{", "{\"main\"}", "{\"main\":}", "{\"main\":\"a.js\",}", "{'main':'a.js'}",
+                "{\"main\":\"a.js\"} x", "{\"a\":[1,]}", "{\"a\":01}", "{\"a\":1.}", "{\"a\":tru}", "{\"a\":\"\\x\"}",
+                "{\"a\":\"\\u12\"}", "{\"a\":\"\n\"}", "{\"main\":\"a.js" };
+        for (String document : documents) {
+            try {
+                PackageJson.parse(document);
+                fail(document);
+            } catch (ModuleException e) {
+                assertEquals("ERR_INVALID_PACKAGE_CONFIG", e.getCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class PathsTest {
+    @Test
+    public void splitPathGivesTheSameResultAsARegularExpression() {
+        String[] paths = { "", "/", "//", "a", "a/", "/a", "./a", "../a/b.js", "a\\b\\c", "a//b", "a/b//", ".",
+                "\\a/b\\" };
+        for (String path : paths) {
+            assertArrayEquals(path, path.split("[\\\\/]"), Paths.splitPath(path));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.alanger.commonjs;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Requires modules that are already loaded, the gc profiler reports the bytes
+// allocated per call (gc.alloc.rate.norm).
+// Run: mvn test-compile && java -cp "target/classes:target/test-classes:$(mvn -q
+// dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+// com.github.alanger.commonjs.RequireBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequireBenchmark {
+
+    private static final String ROOT = "src/test/resources/com/github/alanger/commonjs_modules/test1";
+
+    private AbstractModule require;
+
+    @Setup
+    public void setup() throws ScriptException {
+        ScriptEngine engine = EngineFactory.createEngine();
+        require = Require.enable(engine, FilesystemFolder.create(new File(ROOT).getAbsoluteFile(), "UTF-8"));
+        require.require("./foo");
+        require.require("./subdir/subsubdir/spam.js");
+    }
+
+    @Benchmark
+    public Object requireLoadedModule() throws ScriptException {
+        return require.require("./foo");
+    }
+
+    @Benchmark
+    public Object requireLoadedModuleInSubFolder() throws ScriptException {
+        return require.require("./subdir/subsubdir/spam.js");
+    }
+
+    @Benchmark
+    public String[] splitPath() {
+        return Paths.splitPath("./subdir/subsubdir/spam.js");
+    }
+
+    @Benchmark
+    public String[] legacySplitPath() {
+        return "./subdir/subsubdir/spam.js".split("[\\\\/]");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RequireBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptEngine;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.alanger.commonjs.RequirePool.PooledEngine;
+
+public class RequirePoolTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Folder folder;
+    private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @Before
+    public void before() throws Throwable {
+        File root = tmp.getRoot();
+        Files.write(new File(root, "a.js").toPath(), "exports.value = 'a';".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(root, "b.js").toPath(), "exports.value = require('./a').value + 'b';"
+                .getBytes(StandardCharsets.UTF_8));
+        folder = FilesystemFolder.create(root, "UTF-8");
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void entryModulesAreLoadedOncePerEngine() throws Throwable {
+        try (RequirePool pool = RequirePool.create(EngineFactory::createEngine, folder, 2, "./b")) {
+            assertEquals(2, pool.getSize());
+            for (int i = 0; i < 4; i++) {
+                pool.withEngine(engine -> {
+                    assertEquals(2, engine.getModuleCache().getStats().getLoadSuccessCount());
+                    assertEquals("ab", engine.getScriptEngine().eval("require('./b').value"));
+                    assertEquals(2, engine.getModuleCache().getStats().getLoadSuccessCount());
+                    return null;
+                });
+            }
+        }
+    }
+
+    @Test
+    public void theEngineScopeIsRestoredAfterEachUse() throws Throwable {
+        try (RequirePool pool = RequirePool.create(EngineFactory::createEngine, folder, 1)) {
+            pool.withEngine(engine -> engine.getScriptEngine().eval("var declared = 1; assigned = 2; require = null;"));
+            pool.withEngine(engine -> {
+                // Nashorn and Graal.js cannot delete variables declared with var
+                assertEquals(true,
+                        engine.getScriptEngine().eval("typeof declared === 'undefined' || declared === null"));
+                assertEquals("undefined,function",
+                        engine.getScriptEngine().eval("[typeof assigned, typeof require].join()"));
+                assertEquals("a", engine.getScriptEngine().eval("require('./a').value"));
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void theEnginesCreatedBeforeAFailureAreClosed() throws Throwable {
+        List<ScriptEngine> created = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            RequirePool.create(() -> {
+                if (calls.incrementAndGet() == 3) {
+                    throw new IllegalStateException("failed");
+                }
+                ScriptEngine engine = EngineFactory.createEngine();
+                created.add(engine);
+                return engine;
+            }, folder, 4, "./b");
+            fail("should throw exception");
+        } catch (IllegalStateException expected) {
+        }
+
+        // Only engines that can be closed are
+        Assume.assumeTrue(created.get(0) instanceof AutoCloseable);
+        for (ScriptEngine engine : created) {
+            try {
+                engine.eval("1");
+                fail("engine should be closed");
+            } catch (Exception expected) {
+            }
+        }
+    }
+
+    @Test
+    public void concurrentReleasesOfABorrowReturnTheEngineOnce() throws Throwable {
+        try (RequirePool pool = RequirePool.create(EngineFactory::createEngine, folder, 1)) {
+            for (int i = 0; i < 20; i++) {
+                PooledEngine engine = pool.borrow();
+                CyclicBarrier barrier = new CyclicBarrier(2);
+                List<Future<Boolean>> releases = new ArrayList<>();
+                for (int j = 0; j < 2; j++) {
+                    releases.add(executor.submit(() -> {
+                        barrier.await(10, TimeUnit.SECONDS);
+                        try {
+                            pool.release(engine);
+                            return true;
+                        } catch (IllegalArgumentException e) {
+                            return false;
+                        }
+                    }));
+                }
+                int released = 0;
+                for (Future<Boolean> release : releases) {
+                    released += release.get(10, TimeUnit.SECONDS) ? 1 : 0;
+                }
+                assertEquals(1, released);
+                assertSame(engine, pool.borrow());
+                assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+                pool.release(engine);
+            }
+        }
+    }
+
+    @Test
+    public void borrowingWaitsForAnEngine() throws Throwable {
+        try (RequirePool pool = RequirePool.create(EngineFactory::createEngine, folder, 1)) {
+            PooledEngine engine = pool.borrow();
+            assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+            assertEquals(1, pool.getStats().getBorrowedCount());
+            pool.release(engine);
+            assertSame(engine, pool.borrow(10, TimeUnit.MILLISECONDS));
+            pool.release(engine);
+
+            PoolStats stats = pool.getStats();
+            assertEquals(0, stats.getBorrowedCount());
+            assertEquals(2, stats.getBorrowCount());
+            assertTrue(stats.getMaxWaitTime() >= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(stats.getUtilisation() > 0 && stats.getUtilisation() <= 1);
+        }
+    }
+
+    @Test
+    public void threadsShareTheEngines() throws Throwable {
+        try (RequirePool pool = RequirePool.create(EngineFactory::createEngine, folder, 2, "./a")) {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                int n = i;
+                results.add(executor.submit(() -> pool.withEngine(engine -> engine.getScriptEngine()
+                        .eval("value = " + n + "; require('./b').value + value"))));
+            }
+            for (int i = 0; i < 16; i++) {
+                assertEquals("ab" + i, results.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(16, pool.getStats().getBorrowCount());
+        }
+    }
+}
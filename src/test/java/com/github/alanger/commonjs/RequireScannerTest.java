@@ -0,0 +1,30 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RequireScannerTest {
+    @Test
+    public void itFindsRequiresWithAStringLiteral() {
+        assertEquals(Arrays.asList("./a", "b", "../c/d.js"), RequireScanner.scan(
+                "var a = require('./a');\nconst b = require( \"b\" ), c = require('../c/d.js');"));
+    }
+
+    @Test
+    public void itIgnoresOtherRequires() {
+        assertEquals(Collections.emptyList(), RequireScanner.scan("require(name); require('a' + b); "
+                + "foo.require('c'); requireX('d'); require(); require('e', f); require('g\\'h')"));
+    }
+
+    @Test
+    public void itSkipsCommentsStringsAndRegularExpressions() {
+        String code = "// require('a')\n/* require('b') */ var s = \"require('c')\", t = 'require(\"d\")';\n"
+                + "var u = `require('e') ${x}`; var r = /require('f')[/]/g; var n = 4 / 2; require('g');\n"
+                + "function f() { return /'/.test(s) && require('h'); }";
+        assertEquals(Arrays.asList("g", "h"), RequireScanner.scan(code));
+    }
+}
@@ -1,18 +1,33 @@
 package com.github.alanger.commonjs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
 import javax.script.ScriptEngine;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class ResourceFolderTest {
     private ResourceFolder root = ResourceFolder.create(getClass().getClassLoader(),
-            "com/github/alanger/commonjs_modules/test1", "UTF-8");
+            "com/github/alanger/commonjs_modules/test1", "UTF-8", true);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
 
     @Test
     public void rootFolderHasTheExpectedProperties() {
@@ -41,9 +56,76 @@ public class ResourceFolderTest {
     }
 
     @Test
-    public void getFolderNeverReturnsNullBecauseItCannot() {
+    public void getFolderReturnsNullWhenFolderDoesNotExist() {
+        assertTrue(root.isIndexed());
+        assertNotNull(root.getFolder("subdir"));
+        assertNull(root.getFolder("invalid"));
+        assertNull(root.getFolder("foo.js"));
+    }
+
+    @Test
+    public void getFolderNeverReturnsNullWithoutIndex() {
+        ResourceFolder root = ResourceFolder.create(getClass().getClassLoader(),
+                "com/github/alanger/commonjs_modules/test1", "UTF-8");
+        assertFalse(root.isIndexed());
         assertNotNull(root.getFolder("subdir"));
         assertNotNull(root.getFolder("invalid"));
+        assertTrue(root.getFolder("subdir").getFile("bar.js").contains("bar"));
+    }
+
+    @Test
+    public void getFileAndGetFolderUseTheIndexOfJarFiles() throws Throwable {
+        File jar = tmp.newFile("modules.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String name : new String[] { "lib/", "lib/test1/", "lib/test1/foo.js", "lib/test1/subdir/bar.js",
+                    "lib/test1/subdir/subsubdir/spam.js" }) {
+                out.putNextEntry(new JarEntry(name));
+                if (!name.endsWith("/")) {
+                    String resource = "com/github/alanger/commonjs_modules/" + name.substring("lib/".length());
+                    try (InputStream in = getClass().getClassLoader().getResourceAsStream(resource)) {
+                        in.transferTo(out);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            ResourceFolder root = ResourceFolder.create(loader, "lib/test1", "UTF-8", true);
+            assertTrue(root.isIndexed());
+            assertTrue(root.getFile("foo.js").contains("foo"));
+            assertNull(root.getFile("invalid.js"));
+            assertNull(root.getFolder("invalid"));
+            // Folders without their own jar entry are known from the files they contain
+            assertTrue(root.getFolder("subdir").getFolder("subsubdir").getFile("spam.js").contains("spam"));
+
+            ScriptEngine engine = EngineFactory.createEngine();
+            Require.enable(engine, root);
+            assertEquals(engine.eval("JSON.stringify('spam')"),
+                    engine.eval("JSON.stringify(require('./foo').bar.spam.spam)"));
+        }
+    }
+
+    @Test
+    public void getFileFindsIndexedJarEntriesWithCharactersQuotedInUrls() throws Throwable {
+        File jar = tmp.newFile("modules.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String name : new String[] { "lib/", "lib/my file.js", "lib/100%.js", "lib/#hash.js" }) {
+                out.putNextEntry(new JarEntry(name));
+                if (!name.endsWith("/")) {
+                    out.write(("exports.name = '" + name + "';").getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            ResourceFolder root = ResourceFolder.create(loader, "lib", "UTF-8", true);
+            assertTrue(root.isIndexed());
+            assertEquals("exports.name = 'lib/my file.js';", root.getFile("my file.js"));
+            assertEquals("exports.name = 'lib/100%.js';", root.getFile("100%.js"));
+            assertEquals("exports.name = 'lib/#hash.js';", root.getFile("#hash.js"));
+        }
     }
 
     @Test
@@ -0,0 +1,121 @@
+package com.github.alanger.commonjs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.script.ScriptEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipFolderTest {
+    private static final String MODULES = "src/test/resources/com/github/alanger/commonjs_modules";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ZipFolder root;
+
+    @Before
+    public void before() throws Throwable {
+        root = ZipFolder.create(zip(new File(MODULES, "test1"), "test1"), "test1", "UTF-8");
+    }
+
+    @After
+    public void after() throws Throwable {
+        root.close();
+    }
+
+    @Test
+    public void rootFolderHasTheExpectedProperties() {
+        assertEquals("/", root.getPath());
+        assertNull(root.getParent());
+    }
+
+    @Test
+    public void getFileReturnsTheContentOfTheFileWhenItExists() {
+        assertTrue(root.getFile("foo.js").contains("foo"));
+    }
+
+    @Test
+    public void getFileReturnsNullWhenFileDoesNotExists() {
+        assertNull(root.getFile("invalid"));
+        assertNull(root.getFile("subdir"));
+    }
+
+    @Test
+    public void getFolderReturnsAnObjectWithTheExpectedProperties() {
+        Folder sub = root.getFolder("subdir");
+        assertEquals("/subdir/", sub.getPath());
+        assertSame(root, sub.getParent());
+        Folder subsub = sub.getFolder("subsubdir");
+        assertEquals("/subdir/subsubdir/", subsub.getPath());
+        assertSame(sub, subsub.getParent());
+    }
+
+    @Test
+    public void getFolderReturnsNullWhenFolderDoesNotExist() {
+        assertNull(root.getFolder("invalid"));
+        assertNull(root.getFolder("foo.js"));
+    }
+
+    @Test
+    public void getFileCanBeUsedOnSubFolderIfFileExist() {
+        assertTrue(root.getFolder("subdir").getFile("bar.js").contains("bar"));
+    }
+
+    @Test
+    public void theRootCanBeAFolderOfTheArchive() throws Throwable {
+        try (ZipFolder folder = ZipFolder.create(new File(root.getName()), "test1/subdir", "UTF-8")) {
+            assertTrue(folder.getFile("bar.js").contains("bar"));
+            assertNull(folder.getFile("foo.js"));
+        }
+    }
+
+    @Test
+    public void zipFolderWorksWhenUsedForReal() throws Throwable {
+        ScriptEngine engine = EngineFactory.createEngine();
+        Require.enable(engine, root);
+        assertEquals(engine.eval("JSON.stringify('spam')"),
+                engine.eval("JSON.stringify(require('./foo').bar.spam.spam)"));
+    }
+
+    @Test
+    public void zipFolderCanLoadFromNodeModules() throws Throwable {
+        try (ZipFolder folder = ZipFolder.create(zip(new File(MODULES, "test3"), ""), "UTF-8")) {
+            ScriptEngine engine = EngineFactory.createEngine();
+            Require.enable(engine, folder);
+            engine.eval("require('fbjs/lib/invariant')");
+        }
+    }
+
+    // Archives the content of the directory under the given path, with no
+    // directory entries
+    private File zip(File directory, String path) throws Throwable {
+        File file = tmp.newFile();
+        Path base = directory.toPath();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+                Stream<Path> walk = Files.walk(base)) {
+            for (Path source : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                String name = base.relativize(source).toString().replace('\\', '/');
+                out.putNextEntry(new ZipEntry(path.isEmpty() ? name : path + "/" + name));
+                Files.copy(source, out);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}